@@ -0,0 +1,1694 @@
+package com.airbnb.billow;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDBClient;
+import com.amazonaws.services.dynamodbv2.model.ListTablesRequest;
+import com.amazonaws.services.dynamodbv2.model.ListTablesResult;
+import com.amazonaws.services.dynamodbv2.model.ListTagsOfResourceRequest;
+import com.amazonaws.services.dynamodbv2.model.ResourceNotFoundException;
+import com.amazonaws.services.dynamodbv2.model.TableDescription;
+import com.amazonaws.services.dynamodbv2.model.Tag;
+import com.amazonaws.services.ec2.AmazonEC2Client;
+import com.amazonaws.services.ec2.model.DescribeInstanceStatusRequest;
+import com.amazonaws.services.ec2.model.DescribeInstanceStatusResult;
+import com.amazonaws.services.ec2.model.DescribeInstancesRequest;
+import com.amazonaws.services.ec2.model.DescribeInstancesResult;
+import com.amazonaws.services.ec2.model.DescribeSecurityGroupsRequest;
+import com.amazonaws.services.ec2.model.DescribeSecurityGroupsResult;
+import com.amazonaws.services.ec2.model.Instance;
+import com.amazonaws.services.ec2.model.InstanceStatus;
+import com.amazonaws.services.ec2.model.Reservation;
+import com.amazonaws.services.ec2.model.SecurityGroup;
+import com.amazonaws.services.elasticache.AmazonElastiCacheClient;
+import com.amazonaws.services.elasticache.model.CacheCluster;
+import com.amazonaws.services.elasticache.model.DescribeCacheClustersRequest;
+import com.amazonaws.services.elasticache.model.DescribeCacheClustersResult;
+import com.amazonaws.services.elasticache.model.DescribeReplicationGroupsRequest;
+import com.amazonaws.services.elasticache.model.DescribeReplicationGroupsResult;
+import com.amazonaws.services.elasticache.model.NodeGroup;
+import com.amazonaws.services.elasticache.model.NodeGroupMember;
+import com.amazonaws.services.elasticache.model.ReplicationGroup;
+import com.amazonaws.services.elasticsearch.AWSElasticsearchClient;
+import com.amazonaws.services.elasticsearch.model.DescribeElasticsearchDomainsRequest;
+import com.amazonaws.services.elasticsearch.model.DescribeElasticsearchDomainsResult;
+import com.amazonaws.services.elasticsearch.model.DomainInfo;
+import com.amazonaws.services.elasticsearch.model.ElasticsearchDomainStatus;
+import com.amazonaws.services.elasticsearch.model.ListDomainNamesRequest;
+import com.amazonaws.services.elasticsearch.model.ListDomainNamesResult;
+import com.amazonaws.services.elasticsearch.model.ListTagsRequest;
+import com.amazonaws.services.elasticsearch.model.ListTagsResult;
+import com.amazonaws.services.identitymanagement.AmazonIdentityManagement;
+import com.amazonaws.services.identitymanagement.model.ListUsersRequest;
+import com.amazonaws.services.identitymanagement.model.User;
+import com.amazonaws.services.rds.AmazonRDSClient;
+import com.amazonaws.services.rds.model.DBCluster;
+import com.amazonaws.services.rds.model.DBClusterMember;
+import com.amazonaws.services.rds.model.DBClusterSnapshot;
+import com.amazonaws.services.rds.model.DBInstance;
+import com.amazonaws.services.rds.model.DBInstanceNotFoundException;
+import com.amazonaws.services.rds.model.DBSnapshot;
+import com.amazonaws.services.rds.model.DescribeDBClusterSnapshotsRequest;
+import com.amazonaws.services.rds.model.DescribeDBClusterSnapshotsResult;
+import com.amazonaws.services.rds.model.DescribeDBClustersRequest;
+import com.amazonaws.services.rds.model.DescribeDBClustersResult;
+import com.amazonaws.services.rds.model.DescribeDBInstancesRequest;
+import com.amazonaws.services.rds.model.DescribeDBInstancesResult;
+import com.amazonaws.services.rds.model.DescribeDBSnapshotsRequest;
+import com.amazonaws.services.rds.model.DescribeDBSnapshotsResult;
+import com.amazonaws.services.rds.model.ListTagsForResourceRequest;
+import com.amazonaws.services.rds.model.ListTagsForResourceResult;
+import com.amazonaws.services.resourcegroupstaggingapi.AWSResourceGroupsTaggingAPI;
+import com.amazonaws.services.securitytoken.AWSSecurityTokenService;
+import com.amazonaws.services.securitytoken.model.GetCallerIdentityRequest;
+import com.amazonaws.services.sqs.AmazonSQSClient;
+import com.amazonaws.services.sqs.model.ListQueuesRequest;
+import com.amazonaws.services.sqs.model.QueueDoesNotExistException;
+import com.google.common.base.Function;
+import com.google.common.base.Functions;
+import com.google.common.base.Objects;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableMultimap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.typesafe.config.Config;
+
+/**
+ * Builds {@link AWSDatabase} snapshots by fanning out one task per (service, region) onto a shared pool.
+ * Each service is capped to a configurable number of regions in flight, so a slow service cannot starve
+ * the others and the rebuild takes about as long as the slowest region.
+ */
+@Slf4j
+public class AWSCrawler {
+    private final Map<String, AmazonEC2Client> ec2Clients;
+    private final Map<String, AmazonRDSClient> rdsClients;
+    private final Map<String, AmazonDynamoDBClient> dynamoClients;
+    private final Map<String, AmazonSQSClient> sqsClients;
+    private final Map<String, AmazonElastiCacheClient> elasticacheClients;
+    private final Map<String, AWSElasticsearchClient> elasticsearchClients;
+    private final IAMCollector iamCollector;
+    private final AmazonIdentityManagement iamClient;
+    private final AWSSecurityTokenService stsClient;
+    private final Map<String, AWSResourceGroupsTaggingAPI> taggingClients;
+    private final String awsARNPartition;
+    private volatile String awsAccountNumber;
+    private volatile boolean bulkTagsDenied;
+    private final ExecutorService executor;
+    private final Map<AWSService, BoundedExecutor> serviceExecutors;
+    private final ExecutorService pager;
+    private final int ec2PageSize;
+    private final int ec2SecurityGroupsPageSize;
+    private final int sqsDescribeConcurrency;
+    private final long partitionDeadlineInMs;
+    private final int dynamoDescribeConcurrency;
+    // DescribeDBSnapshots and DescribeDBClusterSnapshots cap
+    private static final int RDS_SNAPSHOTS_PAGE_SIZE = 100;
+    private static final int SQS_LIST_LIMIT = 1000;
+    // IAM is global, it is crawled as a single partition
+    private static final String IAM_REGION = "global";
+    // DescribeElasticsearchDomains cap
+    private static final int ELASTICSEARCH_DESCRIBE_BATCH_SIZE = 5;
+    // ListTables cap
+    private static final int DYNAMO_LIST_PAGE_SIZE = 100;
+    // Including the dot of the .fifo suffix
+    private static final String SQS_QUEUE_NAME_CHARACTERS =
+        "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz-_.";
+
+    private static final Function<SecurityGroup, String> SECURITY_GROUP_ID = new Function<SecurityGroup, String>() {
+        @Override
+        public String apply(SecurityGroup securityGroup) {
+            return securityGroup.getGroupId();
+        }
+    };
+    private static final Function<InstanceStatus, String> INSTANCE_STATUS_ID = new Function<InstanceStatus, String>() {
+        @Override
+        public String apply(InstanceStatus status) {
+            return status.getInstanceId();
+        }
+    };
+    private static final List<String> SQS_DEPTH_ATTRIBUTES = ImmutableList.of(
+        SQSQueue.ATTR_APPROXIMATE_NUMBER_OF_MESSAGES, SQSQueue.ATTR_APPROXIMATE_NUMBER_OF_MESSAGES_DELAYED);
+    private static final Function<IAMUserWithKeys, String> IAM_USER_NAME = new Function<IAMUserWithKeys, String>() {
+        @Override
+        public String apply(IAMUserWithKeys userWithKeys) {
+            return userWithKeys.getUser().getUserName();
+        }
+    };
+
+    /**
+     * Collects everything one service has in one region, carrying over unchanged resources from the previous snapshot.
+     */
+    interface RegionCollector<C, T> {
+        List<T> collect(String regionName, C client, ResourceReuse<T> previous) throws Exception;
+    }
+
+    AWSCrawler(final Config config,
+               final Map<String, AmazonEC2Client> ec2Clients,
+               final Map<String, AmazonRDSClient> rdsClients,
+               final Map<String, AmazonDynamoDBClient> dynamoClients,
+               final Map<String, AmazonSQSClient> sqsClients,
+               final Map<String, AmazonElastiCacheClient> elasticacheClients,
+               final Map<String, AWSElasticsearchClient> elasticsearchClients,
+               final AmazonIdentityManagement iamClient,
+               final AWSSecurityTokenService stsClient,
+               final Map<String, AWSResourceGroupsTaggingAPI> taggingClients,
+               final String configAWSAccountNumber,
+               final String configAWSARNPartition) {
+        this.ec2Clients = ec2Clients;
+        this.rdsClients = rdsClients;
+        this.dynamoClients = dynamoClients;
+        this.sqsClients = sqsClients;
+        this.elasticacheClients = elasticacheClients;
+        this.elasticsearchClients = elasticsearchClients;
+        this.iamClient = iamClient;
+        this.stsClient = stsClient;
+        this.taggingClients = taggingClients;
+
+        if (configAWSAccountNumber == null) {
+            this.awsAccountNumber = "";
+        } else {
+            log.info("using account number '{}' from config", configAWSAccountNumber);
+            this.awsAccountNumber = configAWSAccountNumber;
+        }
+
+        if (configAWSARNPartition == null) {
+            this.awsARNPartition = "aws";
+        } else {
+            log.info("using arn partition '{}' from config", configAWSARNPartition);
+            this.awsARNPartition = configAWSARNPartition;
+        }
+
+        final int threads = config.getInt("threads");
+        log.info("Crawling with {} threads", threads);
+        this.executor = Executors.newFixedThreadPool(threads,
+            new ThreadFactoryBuilder().setNameFormat("crawler-%d").setDaemon(true).build());
+
+        final Config concurrency = config.getConfig("concurrency");
+        this.serviceExecutors = new EnumMap<>(AWSService.class);
+        for (AWSService service : AWSService.values()) {
+            final int limit = concurrency.getInt(service.getConfigName());
+            log.debug("Crawling at most {} regions at once for {}", limit, service);
+            this.serviceExecutors.put(service, new BoundedExecutor(executor, limit));
+        }
+
+        // Prefetches and per-resource describes are not crawl tasks:
+        // queueing them behind the partitions waiting on them could deadlock
+        this.pager = Executors.newCachedThreadPool(
+            new ThreadFactoryBuilder().setNameFormat("pager-%d").setDaemon(true).build());
+        this.ec2PageSize = config.getInt("pageSize.ec2");
+        this.ec2SecurityGroupsPageSize = config.getInt("pageSize.ec2SecurityGroups");
+        this.sqsDescribeConcurrency = config.getInt("describeConcurrency.sqs");
+        this.partitionDeadlineInMs = config.getDuration("deadline", TimeUnit.MILLISECONDS);
+        this.dynamoDescribeConcurrency = config.getInt("describeConcurrency.dynamodb");
+        this.iamCollector = new IAMCollector(iamClient, config.getConfig("iam"));
+    }
+
+    /**
+     * Crawls everything.
+     *
+     * @param previous the snapshot to share unchanged resources with, if any
+     */
+    public AWSDatabase crawl(final AWSDatabase previous) {
+        final long timestamp = System.currentTimeMillis();
+        log.info("Building AWS DB with timestamp {}", timestamp);
+
+        // Regional ARNs need the account number, fail before crawling anything rather than build them without it
+        resolveAccountNumber();
+
+        /*
+         * IAM keys
+         * Slow and global, so they are listed alongside the regions.
+         */
+
+        log.info("Getting IAM keys");
+        final RegionalCrawl<IAMUserWithKeys> iamUsers = crawlIAMUsers(previous == null ? null : previous.getIamUsers(), null);
+
+        /*
+         * Everything else is regional, so every (service, region) pair is crawled in parallel.
+         */
+
+        final RegionalCrawl<ElasticacheCluster> elasticacheClusters =
+            crawlElasticacheClusters(previous == null ? null : previous.getElasticacheClusters(), null);
+        final RegionalCrawl<ElasticsearchCluster> elasticsearchClusters =
+            crawlElasticsearchClusters(previous == null ? null : previous.getElasticsearchClusters(), null);
+        final RegionalCrawl<SQSQueue> sqsQueues = crawlSQSQueues(previous == null ? null : previous.getSqsQueues(), null);
+        final RegionalCrawl<DynamoTable> dynamoTables = crawlDynamoTables(previous == null ? null : previous.getDynamoTables(), null);
+        final RegionalCrawl<EC2Instance> ec2Instances = crawlEC2Instances(previous == null ? null : previous.getEc2Instances(), null);
+        final RegionalCrawl<SecurityGroup> ec2SGs = crawlEC2SecurityGroups(previous == null ? null : previous.getEc2SGs(), null);
+        final RegionalCrawl<RDSInstance> rdsInstances = crawlRDSInstances(previous == null ? null : previous.getRdsInstances(), null);
+
+        final List<RegionalCrawl<?>> crawls = ImmutableList.<RegionalCrawl<?>>of(
+            iamUsers, elasticacheClusters, elasticsearchClusters, sqsQueues, dynamoTables, ec2Instances, ec2SGs, rdsInstances);
+        try {
+            final AWSDatabase db = new AWSDatabase(
+                ec2Instances.get(previous),
+                dynamoTables.get(previous),
+                rdsInstances.get(previous),
+                ec2SGs.get(previous),
+                sqsQueues.get(previous),
+                elasticacheClusters.get(previous),
+                elasticsearchClusters.get(previous),
+                ImmutableList.copyOf(iamUsers.get(previous).values()),
+                AWSDatabase.timestampsAt(timestamp),
+                staleRegions(crawls),
+                awsAccountNumber,
+                awsARNPartition);
+            log.info("Done building AWS DB in {} ms", System.currentTimeMillis() - timestamp);
+            return db;
+        } finally {
+            // Don't leave partitions running in the background when another one failed
+            for (RegionalCrawl<?> crawl : crawls)
+                crawl.cancel();
+        }
+    }
+
+    private static ImmutableMap<AWSService, ImmutableMap<String, Long>> staleRegions(List<RegionalCrawl<?>> crawls) {
+        final Map<AWSService, ImmutableMap<String, Long>> staleRegions = new EnumMap<>(AWSService.class);
+        for (RegionalCrawl<?> crawl : crawls) {
+            if (!crawl.getStaleRegions().isEmpty())
+                staleRegions.put(crawl.service, crawl.getStaleRegions());
+        }
+        return Maps.immutableEnumMap(staleRegions);
+    }
+
+    /**
+     * Crawls a single service.
+     *
+     * @param previous the snapshot to share unchanged resources with
+     * @return how to swap the fresh collection into a snapshot, sharing every other collection
+     */
+    public Function<AWSDatabase, AWSDatabase> crawl(final AWSService service, final AWSDatabase previous) {
+        return crawl(service, null, previous);
+    }
+
+    /**
+     * Crawls a single service, possibly in a single region.
+     * Other regions keep their resources from the snapshot the result is applied to, and the service keeps its timestamp.
+     *
+     * @param region the region to crawl, or null for all of them
+     * @param previous the snapshot to share unchanged resources with
+     * @return how to swap the fresh collection into a snapshot, sharing every other collection
+     * @throws IllegalArgumentException if the service is not crawled in that region
+     */
+    public Function<AWSDatabase, AWSDatabase> crawl(final AWSService service,
+                                                    final String region,
+                                                    final AWSDatabase previous) {
+        final long timestamp = System.currentTimeMillis();
+        log.info("Refreshing {} in {} with timestamp {}", service, region == null ? "all regions" : region, timestamp);
+
+        switch (service) {
+            case IAM: {
+                final RegionalCrawl<IAMUserWithKeys> crawl = crawlIAMUsers(previous.getIamUsers(), region);
+                final ImmutableList<IAMUserWithKeys> iamUsers = ImmutableList.copyOf(crawl.get(previous).values());
+                final String accountNumber = awsAccountNumber;
+                return new Function<AWSDatabase, AWSDatabase>() {
+                    @Override
+                    public AWSDatabase apply(AWSDatabase db) {
+                        return db.withIamUsers(iamUsers, accountNumber, crawl.timestampIn(db, timestamp), crawl.staleRegionsIn(db));
+                    }
+                };
+            }
+            case EC2_INSTANCES: {
+                final RegionalCrawl<EC2Instance> crawl = crawlEC2Instances(previous.getEc2Instances(), region);
+                final ImmutableMultimap<String, EC2Instance> ec2Instances = crawl.get(previous);
+                return new Function<AWSDatabase, AWSDatabase>() {
+                    @Override
+                    public AWSDatabase apply(AWSDatabase db) {
+                        return db.withEc2Instances(ec2Instances, crawl.timestampIn(db, timestamp), crawl.staleRegionsIn(db));
+                    }
+                };
+            }
+            case EC2_SECURITY_GROUPS: {
+                final RegionalCrawl<SecurityGroup> crawl = crawlEC2SecurityGroups(previous.getEc2SGs(), region);
+                final ImmutableMultimap<String, SecurityGroup> ec2SGs = crawl.get(previous);
+                return new Function<AWSDatabase, AWSDatabase>() {
+                    @Override
+                    public AWSDatabase apply(AWSDatabase db) {
+                        return db.withEc2SGs(ec2SGs, crawl.timestampIn(db, timestamp), crawl.staleRegionsIn(db));
+                    }
+                };
+            }
+            case RDS: {
+                final RegionalCrawl<RDSInstance> crawl = crawlRDSInstances(previous.getRdsInstances(), region);
+                final ImmutableMultimap<String, RDSInstance> rdsInstances = crawl.get(previous);
+                return new Function<AWSDatabase, AWSDatabase>() {
+                    @Override
+                    public AWSDatabase apply(AWSDatabase db) {
+                        return db.withRdsInstances(rdsInstances, crawl.timestampIn(db, timestamp), crawl.staleRegionsIn(db));
+                    }
+                };
+            }
+            case DYNAMODB: {
+                final RegionalCrawl<DynamoTable> crawl = crawlDynamoTables(previous.getDynamoTables(), region);
+                final ImmutableMultimap<String, DynamoTable> dynamoTables = crawl.get(previous);
+                return new Function<AWSDatabase, AWSDatabase>() {
+                    @Override
+                    public AWSDatabase apply(AWSDatabase db) {
+                        return db.withDynamoTables(dynamoTables, crawl.timestampIn(db, timestamp), crawl.staleRegionsIn(db));
+                    }
+                };
+            }
+            case SQS: {
+                final RegionalCrawl<SQSQueue> crawl = crawlSQSQueues(previous.getSqsQueues(), region);
+                final ImmutableMultimap<String, SQSQueue> sqsQueues = crawl.get(previous);
+                return new Function<AWSDatabase, AWSDatabase>() {
+                    @Override
+                    public AWSDatabase apply(AWSDatabase db) {
+                        return db.withSqsQueues(sqsQueues, crawl.timestampIn(db, timestamp), crawl.staleRegionsIn(db));
+                    }
+                };
+            }
+            case ELASTICACHE: {
+                final RegionalCrawl<ElasticacheCluster> crawl = crawlElasticacheClusters(previous.getElasticacheClusters(), region);
+                final ImmutableMultimap<String, ElasticacheCluster> elasticacheClusters = crawl.get(previous);
+                return new Function<AWSDatabase, AWSDatabase>() {
+                    @Override
+                    public AWSDatabase apply(AWSDatabase db) {
+                        return db.withElasticacheClusters(elasticacheClusters, crawl.timestampIn(db, timestamp), crawl.staleRegionsIn(db));
+                    }
+                };
+            }
+            case ELASTICSEARCH: {
+                final RegionalCrawl<ElasticsearchCluster> crawl = crawlElasticsearchClusters(previous.getElasticsearchClusters(), region);
+                final ImmutableMultimap<String, ElasticsearchCluster> elasticsearchClusters = crawl.get(previous);
+                return new Function<AWSDatabase, AWSDatabase>() {
+                    @Override
+                    public AWSDatabase apply(AWSDatabase db) {
+                        return db.withElasticsearchClusters(elasticsearchClusters, crawl.timestampIn(db, timestamp), crawl.staleRegionsIn(db));
+                    }
+                };
+            }
+            default:
+                throw new IllegalArgumentException("Unknown service " + service);
+        }
+    }
+
+    /**
+     * Describes the one resource an event is about.
+     *
+     * @return how to swap the fresh resource into a snapshot, or drop it if it is gone
+     */
+    public Function<AWSDatabase, AWSDatabase> crawl(final ChangeEvent event) {
+        final String region = event.getRegion();
+        final String id = event.getResourceId();
+        log.debug("Describing {}", event);
+
+        switch (event.getService()) {
+            case EC2_INSTANCES: {
+                final AmazonEC2Client client = ec2Clients.get(region);
+                if (client == null)
+                    break;
+                EC2Instance described = null;
+                try {
+                    final DescribeInstancesRequest request = new DescribeInstancesRequest().withInstanceIds(id);
+                    for (Reservation reservation : client.describeInstances(request).getReservations()) {
+                        for (Instance instance : reservation.getInstances())
+                            described = new EC2Instance(instance, ResourceReuse.fingerprint(instance));
+                    }
+                } catch (AmazonServiceException e) {
+                    if (!"InvalidInstanceID.NotFound".equals(e.getErrorCode()))
+                        throw e;
+                }
+                final EC2Instance ec2Instance = described;
+                return new Function<AWSDatabase, AWSDatabase>() {
+                    @Override
+                    public AWSDatabase apply(AWSDatabase db) {
+                        return db.withEc2Instances(AWSDatabase.replace(db.getEc2Instances(), region, id,
+                            ec2Instance, ResourceReuse.RESOURCE_ID));
+                    }
+                };
+            }
+            case EC2_SECURITY_GROUPS: {
+                final AmazonEC2Client client = ec2Clients.get(region);
+                if (client == null)
+                    break;
+                SecurityGroup described = null;
+                try {
+                    final DescribeSecurityGroupsRequest request = new DescribeSecurityGroupsRequest().withGroupIds(id);
+                    for (SecurityGroup securityGroup : client.describeSecurityGroups(request).getSecurityGroups())
+                        described = securityGroup;
+                } catch (AmazonServiceException e) {
+                    if (!"InvalidGroup.NotFound".equals(e.getErrorCode()))
+                        throw e;
+                }
+                final SecurityGroup securityGroup = described;
+                return new Function<AWSDatabase, AWSDatabase>() {
+                    @Override
+                    public AWSDatabase apply(AWSDatabase db) {
+                        return db.withEc2SGs(AWSDatabase.replace(db.getEc2SGs(), region, id,
+                            securityGroup, SECURITY_GROUP_ID));
+                    }
+                };
+            }
+            case RDS: {
+                final AmazonRDSClient client = rdsClients.get(region);
+                if (client == null)
+                    break;
+                RDSInstance described = null;
+                try {
+                    final DescribeDBInstancesRequest request = new DescribeDBInstancesRequest().withDBInstanceIdentifier(id);
+                    for (DBInstance instance : client.describeDBInstances(request).getDBInstances()) {
+                        DBCluster cluster = null;
+                        if (instance.getDBClusterIdentifier() != null) {
+                            for (DBCluster c : client.describeDBClusters(new DescribeDBClustersRequest()
+                                .withDBClusterIdentifier(instance.getDBClusterIdentifier())).getDBClusters())
+                                cluster = c;
+                        }
+                        described = describeRDSInstance(region, client, instance, cluster,
+                            new ResourceReuse<>(ImmutableList.<RDSInstance>of(), ResourceReuse.RESOURCE_ID), null, null, awsAccountNumber);
+                    }
+                } catch (DBInstanceNotFoundException e) {
+                    // deleted
+                }
+                final RDSInstance rdsInstance = described;
+                return new Function<AWSDatabase, AWSDatabase>() {
+                    @Override
+                    public AWSDatabase apply(AWSDatabase db) {
+                        return db.withRdsInstances(AWSDatabase.replace(db.getRdsInstances(), region, id,
+                            rdsInstance, ResourceReuse.RESOURCE_ID));
+                    }
+                };
+            }
+            case DYNAMODB: {
+                final AmazonDynamoDBClient client = dynamoClients.get(region);
+                if (client == null)
+                    break;
+                DynamoTable described = null;
+                try {
+                    described = describeDynamoTable(client, client.describeTable(id).getTable(),
+                        new ResourceReuse<>(ImmutableList.<DynamoTable>of(), ResourceReuse.RESOURCE_ID), null);
+                } catch (ResourceNotFoundException e) {
+                    // deleted
+                }
+                final DynamoTable dynamoTable = described;
+                return new Function<AWSDatabase, AWSDatabase>() {
+                    @Override
+                    public AWSDatabase apply(AWSDatabase db) {
+                        return db.withDynamoTables(AWSDatabase.replace(db.getDynamoTables(), region, id,
+                            dynamoTable, ResourceReuse.RESOURCE_ID));
+                    }
+                };
+            }
+            case SQS: {
+                final AmazonSQSClient client = sqsClients.get(region);
+                if (client == null)
+                    break;
+                SQSQueue described = null;
+                try {
+                    described = describeSQSQueue(client, id,
+                        new ResourceReuse<>(ImmutableList.<SQSQueue>of(), ResourceReuse.RESOURCE_ID), null);
+                } catch (QueueDoesNotExistException e) {
+                    // deleted
+                }
+                final SQSQueue sqsQueue = described;
+                return new Function<AWSDatabase, AWSDatabase>() {
+                    @Override
+                    public AWSDatabase apply(AWSDatabase db) {
+                        return db.withSqsQueues(AWSDatabase.replace(db.getSqsQueues(), region, id,
+                            sqsQueue, ResourceReuse.RESOURCE_ID));
+                    }
+                };
+            }
+            default:
+                break;
+        }
+        log.debug("Ignoring {}", event);
+        return Functions.<AWSDatabase>identity();
+    }
+
+    /**
+     * Polls what goes stale within seconds: EC2 instance states and SQS queue depths.
+     * Only resources of the given snapshot are polled, nothing is added or removed.
+     *
+     * @return how to patch the fresh values into a snapshot, leaving every other field alone
+     */
+    public Function<AWSDatabase, AWSDatabase> crawlVolatile(final AWSDatabase previous) {
+        final long start = System.currentTimeMillis();
+        final ImmutableMultimap<String, InstanceStatus> statuses = fanOut(AWSService.EC2_INSTANCES, ec2Clients, null, null, INSTANCE_STATUS_ID,
+            new RegionCollector<AmazonEC2Client, InstanceStatus>() {
+                @Override
+                public List<InstanceStatus> collect(String regionName, AmazonEC2Client client, ResourceReuse<InstanceStatus> reuse)
+                    throws Exception {
+                    return collectEC2InstanceStatuses(client);
+                }
+            }).get(null);
+        final ImmutableMultimap<String, SQSQueue> depths = fanOut(AWSService.SQS, sqsClients, null, null, ResourceReuse.RESOURCE_ID,
+            new RegionCollector<AmazonSQSClient, SQSQueue>() {
+                @Override
+                public List<SQSQueue> collect(String regionName, AmazonSQSClient client, ResourceReuse<SQSQueue> reuse)
+                    throws Exception {
+                    return collectSQSQueueDepths(client, previous.getSqsQueues().get(regionName));
+                }
+            }).get(null);
+        log.debug("Polled {} instance states and {} queue depths in {} ms",
+            statuses.size(), depths.size(), System.currentTimeMillis() - start);
+
+        return new Function<AWSDatabase, AWSDatabase>() {
+            @Override
+            public AWSDatabase apply(AWSDatabase db) {
+                final Map<String, String> states = new HashMap<>(statuses.size());
+                for (InstanceStatus status : statuses.values())
+                    states.put(status.getInstanceId(), status.getInstanceState().getName());
+                final ImmutableMultimap.Builder<String, EC2Instance> ec2Instances = new ImmutableMultimap.Builder<>();
+                for (Map.Entry<String, EC2Instance> entry : db.getEc2Instances().entries()) {
+                    final EC2Instance instance = entry.getValue();
+                    final String state = states.get(instance.getId());
+                    ec2Instances.put(entry.getKey(), state == null || state.equals(instance.getState()) ?
+                        instance : instance.withState(state));
+                }
+
+                // Only the counts are taken, a crawl may have refreshed everything else meanwhile
+                final Map<String, SQSQueue> queueDepths = new HashMap<>(depths.size());
+                for (SQSQueue queue : depths.values())
+                    queueDepths.put(queue.getUrl(), queue);
+                final ImmutableMultimap.Builder<String, SQSQueue> sqsQueues = new ImmutableMultimap.Builder<>();
+                for (Map.Entry<String, SQSQueue> entry : db.getSqsQueues().entries()) {
+                    final SQSQueue queue = entry.getValue();
+                    final SQSQueue depth = queueDepths.get(queue.getUrl());
+                    if (depth == null
+                        || (Objects.equal(depth.getApproximateNumberOfMessages(), queue.getApproximateNumberOfMessages())
+                        && Objects.equal(depth.getApproximateNumberOfMessagesDelayed(), queue.getApproximateNumberOfMessagesDelayed())))
+                        sqsQueues.put(entry.getKey(), queue);
+                    else
+                        sqsQueues.put(entry.getKey(), queue.withDepth(
+                            depth.getApproximateNumberOfMessages(), depth.getApproximateNumberOfMessagesDelayed()));
+                }
+
+                return db.withEc2Instances(ec2Instances.build()).withSqsQueues(sqsQueues.build());
+            }
+        };
+    }
+
+    /**
+     * @return the regions {@link #crawl(AWSService, String, AWSDatabase)} accepts for that service
+     */
+    public Set<String> getRegions(AWSService service) {
+        switch (service) {
+            case IAM:
+                return ImmutableSet.of(IAM_REGION);
+            case EC2_INSTANCES:
+            case EC2_SECURITY_GROUPS:
+                return ec2Clients.keySet();
+            case RDS:
+                return rdsClients.keySet();
+            case DYNAMODB:
+                return dynamoClients.keySet();
+            case SQS:
+                return sqsClients.keySet();
+            case ELASTICACHE:
+                return elasticacheClients.keySet();
+            case ELASTICSEARCH:
+                return elasticsearchClients.keySet();
+            default:
+                throw new IllegalArgumentException("Unknown service " + service);
+        }
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+        pager.shutdownNow();
+        iamCollector.shutdown();
+    }
+
+    /**
+     * Looks up the account number once, unless it was configured.
+     * If STS cannot be reached, it is taken from the ARN of an IAM user instead.
+     *
+     * @return the account number
+     * @throws IllegalStateException if neither works, regional ARNs could not be built
+     */
+    private synchronized String resolveAccountNumber() {
+        if (!awsAccountNumber.isEmpty())
+            return awsAccountNumber;
+        try {
+            awsAccountNumber = stsClient.getCallerIdentity(new GetCallerIdentityRequest()).getAccount();
+            log.info("using account number '{}' from STS", awsAccountNumber);
+            return awsAccountNumber;
+        } catch (AmazonClientException e) {
+            log.warn("Could not get the account number from STS, asking IAM", e);
+        }
+        final List<User> users;
+        try {
+            users = iamClient.listUsers(new ListUsersRequest().withMaxItems(1)).getUsers();
+        } catch (AmazonClientException e) {
+            throw new IllegalStateException("Could not get the account number from STS nor IAM, configure accountNumber", e);
+        }
+        if (users.isEmpty())
+            throw new IllegalStateException("Could not get the account number from STS and there is no IAM user, configure accountNumber");
+        awsAccountNumber = users.get(0).getArn().split(":")[4];
+        log.info("using account number '{}' from IAM user {}", awsAccountNumber, users.get(0).getUserName());
+        return awsAccountNumber;
+    }
+
+    /**
+     * @return the tags of every resource of that type in that region, or null when bulk tagging is disabled
+     * or not allowed, resources are then tagged one at a time
+     */
+    private TagIndex tagIndex(String regionName, String resourceType) {
+        final AWSResourceGroupsTaggingAPI taggingClient = taggingClients.get(regionName);
+        if (taggingClient == null || bulkTagsDenied)
+            return null;
+        try {
+            return TagIndex.build(taggingClient, resourceType);
+        } catch (AmazonServiceException e) {
+            if (e.getStatusCode() != 403 && (e.getErrorCode() == null || !e.getErrorCode().startsWith("AccessDenied")))
+                throw e;
+            // Deployments predating bulkTags may lack the permission, keep crawling as they did
+            if (!bulkTagsDenied)
+                log.warn("Not allowed to call tag:GetResources, tagging resources one at a time", e);
+            bulkTagsDenied = true;
+            return null;
+        }
+    }
+
+    /**
+     * Walks a paginated API, fetching the next page while the current one is being consumed.
+     * Only two pages are ever held at once.
+     */
+    private <P> void paginate(final Pages<P> pages) throws Exception {
+        P page = pages.fetch(null);
+        while (page != null) {
+            final String token = pages.nextToken(page);
+            Future<P> next = null;
+            if (token != null && !token.isEmpty()) {
+                next = pager.submit(new Callable<P>() {
+                    @Override
+                    public P call() throws Exception {
+                        return pages.fetch(token);
+                    }
+                });
+            }
+            try {
+                pages.consume(page);
+                page = null;
+                if (next != null)
+                    page = next.get();
+            } catch (ExecutionException e) {
+                Throwables.propagateIfPossible(e.getCause(), Exception.class);
+                throw new IllegalStateException(e.getCause());
+            } finally {
+                if (next != null)
+                    next.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * @param region the only region to crawl, the others keeping their previous resources, or null for all of them
+     * @param previous what the service had in the previous snapshot, or null
+     * @param idFunction how resources are matched with their previous version within a region
+     */
+    private <C, T> RegionalCrawl<T> fanOut(final AWSService service,
+                                           final Map<String, C> clients,
+                                           final String region,
+                                           final ImmutableMultimap<String, T> previous,
+                                           final Function<? super T, String> idFunction,
+                                           final RegionCollector<C, T> collector) {
+        final Executor serviceExecutor = serviceExecutors.get(service);
+        final Map<String, Future<List<T>>> futures = new LinkedHashMap<>();
+        final Map<String, AtomicLong> startTimes = new HashMap<>();
+        if (region != null && !clients.containsKey(region))
+            throw new IllegalArgumentException(service + " is not crawled in " + region);
+        for (Map.Entry<String, C> clientPair : clients.entrySet()) {
+            final String regionName = clientPair.getKey();
+            final C client = clientPair.getValue();
+            if (region != null && !region.equals(regionName)) {
+                final List<T> kept = previous == null ? ImmutableList.<T>of() : previous.get(regionName).asList();
+                futures.put(regionName, Futures.immediateFuture(kept));
+                startTimes.put(regionName, new AtomicLong(System.currentTimeMillis()));
+                continue;
+            }
+            final AtomicLong startTime = new AtomicLong();
+            final FutureTask<List<T>> task = new FutureTask<>(new Callable<List<T>>() {
+                @Override
+                public List<T> call() throws Exception {
+                    final long start = System.currentTimeMillis();
+                    startTime.set(start);
+                    final ResourceReuse<T> reuse = new ResourceReuse<>(
+                        previous == null ? ImmutableList.<T>of() : previous.get(regionName), idFunction);
+                    final List<T> items = collector.collect(regionName, client, reuse);
+                    log.debug("Crawled {} {} in {} in {} ms, {} unchanged",
+                        items.size(), service, regionName, System.currentTimeMillis() - start, reuse.getReused());
+                    return items;
+                }
+            });
+            serviceExecutor.execute(task);
+            futures.put(regionName, task);
+            startTimes.put(regionName, startTime);
+        }
+        return new RegionalCrawl<>(service, region, futures, startTimes, previous, partitionDeadlineInMs);
+    }
+
+    private RegionalCrawl<IAMUserWithKeys> crawlIAMUsers(final ImmutableList<IAMUserWithKeys> previous, final String region) {
+        return fanOut(AWSService.IAM, ImmutableMap.of(IAM_REGION, iamCollector), region,
+            previous == null ? null : ImmutableMultimap.<String, IAMUserWithKeys>builder().putAll(IAM_REGION, previous).build(),
+            IAM_USER_NAME,
+            new RegionCollector<IAMCollector, IAMUserWithKeys>() {
+                @Override
+                public List<IAMUserWithKeys> collect(String regionName, IAMCollector client, ResourceReuse<IAMUserWithKeys> reuse)
+                    throws Exception {
+                    return collectIAMUsers(client, reuse);
+                }
+            });
+    }
+
+    private RegionalCrawl<ElasticacheCluster> crawlElasticacheClusters(final ImmutableMultimap<String, ElasticacheCluster> previous, final String region) {
+        final String accountNumber = resolveAccountNumber();
+        return fanOut(AWSService.ELASTICACHE, elasticacheClients, region, previous, ResourceReuse.RESOURCE_ID,
+            new RegionCollector<AmazonElastiCacheClient, ElasticacheCluster>() {
+                @Override
+                public List<ElasticacheCluster> collect(String regionName, AmazonElastiCacheClient client, ResourceReuse<ElasticacheCluster> reuse) {
+                    return collectElasticacheClusters(regionName, client, reuse, accountNumber);
+                }
+            });
+    }
+
+    private RegionalCrawl<ElasticsearchCluster> crawlElasticsearchClusters(final ImmutableMultimap<String, ElasticsearchCluster> previous, final String region) {
+        final String accountNumber = resolveAccountNumber();
+        return fanOut(AWSService.ELASTICSEARCH, elasticsearchClients, region, previous, ResourceReuse.RESOURCE_ID,
+            new RegionCollector<AWSElasticsearchClient, ElasticsearchCluster>() {
+                @Override
+                public List<ElasticsearchCluster> collect(String regionName, AWSElasticsearchClient client, ResourceReuse<ElasticsearchCluster> reuse) {
+                    return collectElasticsearchClusters(regionName, client, reuse, accountNumber);
+                }
+            });
+    }
+
+    private RegionalCrawl<SQSQueue> crawlSQSQueues(final ImmutableMultimap<String, SQSQueue> previous, final String region) {
+        return fanOut(AWSService.SQS, sqsClients, region, previous, ResourceReuse.RESOURCE_ID,
+            new RegionCollector<AmazonSQSClient, SQSQueue>() {
+                @Override
+                public List<SQSQueue> collect(String regionName, AmazonSQSClient client, ResourceReuse<SQSQueue> reuse)
+                    throws Exception {
+                    return collectSQSQueues(regionName, client, reuse);
+                }
+            });
+    }
+
+    private RegionalCrawl<DynamoTable> crawlDynamoTables(final ImmutableMultimap<String, DynamoTable> previous, final String region) {
+        return fanOut(AWSService.DYNAMODB, dynamoClients, region, previous, ResourceReuse.RESOURCE_ID,
+            new RegionCollector<AmazonDynamoDBClient, DynamoTable>() {
+                @Override
+                public List<DynamoTable> collect(String regionName, AmazonDynamoDBClient client, ResourceReuse<DynamoTable> reuse)
+                    throws Exception {
+                    return collectDynamoTables(regionName, client, reuse);
+                }
+            });
+    }
+
+    private RegionalCrawl<EC2Instance> crawlEC2Instances(final ImmutableMultimap<String, EC2Instance> previous, final String region) {
+        return fanOut(AWSService.EC2_INSTANCES, ec2Clients, region, previous, ResourceReuse.RESOURCE_ID,
+            new RegionCollector<AmazonEC2Client, EC2Instance>() {
+                @Override
+                public List<EC2Instance> collect(String regionName, AmazonEC2Client client, ResourceReuse<EC2Instance> reuse)
+                    throws Exception {
+                    return collectEC2Instances(regionName, client, reuse);
+                }
+            });
+    }
+
+    private RegionalCrawl<SecurityGroup> crawlEC2SecurityGroups(final ImmutableMultimap<String, SecurityGroup> previous, final String region) {
+        return fanOut(AWSService.EC2_SECURITY_GROUPS, ec2Clients, region, previous, SECURITY_GROUP_ID,
+            new RegionCollector<AmazonEC2Client, SecurityGroup>() {
+                @Override
+                public List<SecurityGroup> collect(String regionName, AmazonEC2Client client, ResourceReuse<SecurityGroup> reuse)
+                    throws Exception {
+                    return collectEC2SecurityGroups(regionName, client, reuse);
+                }
+            });
+    }
+
+    private RegionalCrawl<RDSInstance> crawlRDSInstances(final ImmutableMultimap<String, RDSInstance> previous, final String region) {
+        final String accountNumber = resolveAccountNumber();
+        return fanOut(AWSService.RDS, rdsClients, region, previous, ResourceReuse.RESOURCE_ID,
+            new RegionCollector<AmazonRDSClient, RDSInstance>() {
+                @Override
+                public List<RDSInstance> collect(String regionName, AmazonRDSClient client, ResourceReuse<RDSInstance> reuse)
+                    throws Exception {
+                    return collectRDSInstances(regionName, client, reuse, accountNumber);
+                }
+            });
+    }
+
+    private List<IAMUserWithKeys> collectIAMUsers(final IAMCollector collector,
+                                                  final ResourceReuse<IAMUserWithKeys> reuse) throws Exception {
+        return collector.collect(reuse);
+    }
+
+    private List<ElasticacheCluster> collectElasticacheClusters(final String regionName,
+                                                                final AmazonElastiCacheClient client,
+                                                                final ResourceReuse<ElasticacheCluster> reuse,
+                                                                final String awsAccountNumber) {
+        final List<ElasticacheCluster> clusters = new ArrayList<>();
+        final Map<String, NodeGroupMember> clusterIdToNodeGroupMember = new HashMap<>();
+        DescribeCacheClustersRequest describeCacheClustersRequest = new DescribeCacheClustersRequest();
+        DescribeReplicationGroupsRequest describeReplicationGroupsRequest = new DescribeReplicationGroupsRequest();
+        DescribeCacheClustersResult describeCacheClustersResult;
+        DescribeReplicationGroupsResult describeReplicationGroupsResult;
+
+        do {
+            log.info("Getting Elasticache replication groups from {} with marker {}", regionName, describeReplicationGroupsRequest.getMarker());
+
+            describeReplicationGroupsResult = client.describeReplicationGroups(describeReplicationGroupsRequest);
+
+            for (ReplicationGroup replicationGroup: describeReplicationGroupsResult.getReplicationGroups()) {
+                for (NodeGroup nodeGroup: replicationGroup.getNodeGroups()) {
+                    for (NodeGroupMember nodeGroupMember: nodeGroup.getNodeGroupMembers()) {
+                        clusterIdToNodeGroupMember.put(nodeGroupMember.getCacheClusterId(), nodeGroupMember);
+                    }
+                }
+            }
+
+            describeReplicationGroupsRequest.setMarker(describeReplicationGroupsResult.getMarker());
+        } while (describeReplicationGroupsResult.getMarker() != null);
+
+        final TagIndex tagIndex = tagIndex(regionName, "elasticache:cluster");
+        do {
+            log.info("Getting Elasticache from {} with marker {}", regionName, describeCacheClustersRequest.getMarker());
+
+            describeCacheClustersResult = client.describeCacheClusters(describeCacheClustersRequest);
+            int cntClusters = 0;
+
+            for (CacheCluster cluster : describeCacheClustersResult.getCacheClusters()) {
+                final String arn = elasticacheARN(awsARNPartition, regionName, awsAccountNumber, cluster);
+                final Map<String, String> tags;
+                if (tagIndex != null) {
+                    tags = tagIndex.get(arn);
+                } else {
+                    com.amazonaws.services.elasticache.model.ListTagsForResourceRequest tagsRequest =
+                        new com.amazonaws.services.elasticache.model.ListTagsForResourceRequest()
+                            .withResourceName(arn);
+
+                    com.amazonaws.services.elasticache.model.ListTagsForResourceResult tagsResult =
+                        client.listTagsForResource(tagsRequest);
+                    tags = new HashMap<>();
+                    for (com.amazonaws.services.elasticache.model.Tag tag : tagsResult.getTagList())
+                        tags.put(tag.getKey(), tag.getValue());
+                }
+
+                final NodeGroupMember nodeGroupMember = clusterIdToNodeGroupMember.get(cluster.getCacheClusterId());
+                final long fingerprint = ResourceReuse.fingerprint(cluster, nodeGroupMember, tags);
+                final ElasticacheCluster unchanged = reuse.unchanged(cluster.getCacheClusterId(), fingerprint);
+                clusters.add(unchanged != null ? unchanged :
+                    new ElasticacheCluster(cluster, nodeGroupMember, tags, fingerprint));
+                cntClusters++;
+            }
+
+            log.debug("Found {} cache clusters in {}", cntClusters, regionName);
+
+            describeCacheClustersRequest.setMarker(describeCacheClustersResult.getMarker());
+        } while (describeCacheClustersResult.getMarker() != null);
+
+        return clusters;
+    }
+
+    private List<ElasticsearchCluster> collectElasticsearchClusters(final String regionName,
+                                                                    final AWSElasticsearchClient client,
+                                                                    final ResourceReuse<ElasticsearchCluster> reuse,
+                                                                    final String awsAccountNumber) {
+        final List<ElasticsearchCluster> clusters = new ArrayList<>();
+        ListDomainNamesRequest domainNamesRequest = new ListDomainNamesRequest();
+        ListDomainNamesResult domainNamesResult = client.listDomainNames(domainNamesRequest);
+
+        List<DomainInfo> domainInfoList = domainNamesResult.getDomainNames();
+        final TagIndex tagIndex = domainInfoList.isEmpty() ? null : tagIndex(regionName, "es:domain");
+
+        final Map<String, ElasticsearchDomainStatus> statuses = new HashMap<>(domainInfoList.size());
+        for (List<DomainInfo> batch : Lists.partition(domainInfoList, ELASTICSEARCH_DESCRIBE_BATCH_SIZE)) {
+            final List<String> domainNames = new ArrayList<>(batch.size());
+            for (DomainInfo domainInfo : batch)
+                domainNames.add(domainInfo.getDomainName());
+            final DescribeElasticsearchDomainsResult describeDomainsResult =
+                client.describeElasticsearchDomains(new DescribeElasticsearchDomainsRequest().withDomainNames(domainNames));
+            for (ElasticsearchDomainStatus status : describeDomainsResult.getDomainStatusList())
+                statuses.put(status.getDomainName(), status);
+        }
+
+        for (DomainInfo domainInfo : domainInfoList) {
+            final ElasticsearchDomainStatus status = statuses.get(domainInfo.getDomainName());
+            // Deleted since it was listed
+            if (status == null)
+                continue;
+
+            final String arn = elasticsearchARN(awsARNPartition, regionName, awsAccountNumber, domainInfo.getDomainName());
+            final Map<String, String> tags;
+            if (tagIndex != null) {
+                tags = tagIndex.get(arn);
+            } else {
+                ListTagsRequest listTagsRequest = new ListTagsRequest();
+                listTagsRequest.setARN(arn);
+                ListTagsResult tagList = client.listTags(listTagsRequest);
+                tags = new HashMap<>();
+                for (com.amazonaws.services.elasticsearch.model.Tag tag : tagList.getTagList())
+                    tags.put(tag.getKey(), tag.getValue());
+            }
+
+            final long fingerprint = ResourceReuse.fingerprint(status, tags);
+            final ElasticsearchCluster unchanged = reuse.unchanged(domainInfo.getDomainName(), fingerprint);
+            clusters.add(unchanged != null ? unchanged : new ElasticsearchCluster(status, tags, fingerprint));
+        }
+        log.debug("Found {} Elasticsearch domains in {}", clusters.size(), regionName);
+
+        return clusters;
+    }
+
+    private List<SQSQueue> collectSQSQueues(final String regionName,
+                                            final AmazonSQSClient client,
+                                            final ResourceReuse<SQSQueue> reuse) throws Exception {
+        log.info("Getting SQS from {}", regionName);
+        final Set<String> urls = new LinkedHashSet<>();
+        listSQSQueues(client, "", urls);
+        final TagIndex tagIndex = urls.isEmpty() ? null : tagIndex(regionName, "sqs");
+
+        final List<SQSQueue> queues = describeConcurrently(urls, sqsDescribeConcurrency, new Function<String, SQSQueue>() {
+            @Override
+            public SQSQueue apply(String url) {
+                try {
+                    return describeSQSQueue(client, url, reuse, tagIndex);
+                } catch (QueueDoesNotExistException e) {
+                    // Deleted since it was listed
+                    return null;
+                }
+            }
+        });
+        log.debug("Found {} queues in {}", queues.size(), regionName);
+        return queues;
+    }
+
+    /**
+     * Describes resources of one region a few at a time.
+     *
+     * @param describe may return null for a resource that is gone
+     * @return the described resources, in order
+     */
+    private <T> List<T> describeConcurrently(final Collection<String> ids,
+                                             final int concurrency,
+                                             final Function<String, T> describe) throws Exception {
+        final Executor describer = new BoundedExecutor(pager, concurrency);
+        final List<FutureTask<T>> futures = new ArrayList<>(ids.size());
+        try {
+            for (final String id : ids) {
+                final FutureTask<T> task = new FutureTask<>(new Callable<T>() {
+                    @Override
+                    public T call() {
+                        return describe.apply(id);
+                    }
+                });
+                describer.execute(task);
+                futures.add(task);
+            }
+
+            final List<T> described = new ArrayList<>(futures.size());
+            for (FutureTask<T> future : futures) {
+                final T resource = future.get();
+                if (resource != null)
+                    described.add(resource);
+            }
+            return described;
+        } catch (ExecutionException e) {
+            Throwables.propagateIfPossible(e.getCause(), Exception.class);
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            for (FutureTask<T> future : futures)
+                future.cancel(true);
+        }
+    }
+
+    /**
+     * ListQueues returns at most {@value #SQS_LIST_LIMIT} queues and cannot page, so a full listing
+     * is split into one listing per longer prefix until every listing fits.
+     */
+    private static void listSQSQueues(final AmazonSQSClient client, final String prefix, final Set<String> urls) {
+        final List<String> listed = client.listQueues(new ListQueuesRequest().withQueueNamePrefix(prefix)).getQueueUrls();
+        if (listed.size() < SQS_LIST_LIMIT) {
+            urls.addAll(listed);
+            return;
+        }
+
+        log.debug("More than {} queues start with '{}', splitting", SQS_LIST_LIMIT, prefix);
+        for (String url : listed) {
+            // Not listed again under any longer prefix
+            if (url.substring(url.lastIndexOf('/') + 1).equals(prefix))
+                urls.add(url);
+        }
+        for (char c : SQS_QUEUE_NAME_CHARACTERS.toCharArray())
+            listSQSQueues(client, prefix + c, urls);
+    }
+
+    /**
+     * @param tagIndex null to fetch the queue's tags on its own
+     */
+    private SQSQueue describeSQSQueue(final AmazonSQSClient client,
+                                      final String url,
+                                      final ResourceReuse<SQSQueue> reuse,
+                                      final TagIndex tagIndex) {
+        Map<String, String> map = client.getQueueAttributes(url, SQSQueue.ATTRIBUTES).getAttributes();
+        String approximateNumberOfMessagesDelayed = map.get(SQSQueue.ATTR_APPROXIMATE_NUMBER_OF_MESSAGES_DELAYED);
+        String receiveMessageWaitTimeSeconds = map.get(SQSQueue.ATTR_RECEIVE_MESSAGE_WAIT_TIME_SECONDS);
+        String createdTimestamp = map.get(SQSQueue.ATTR_CREATED_TIMESTAMP);
+        String delaySeconds = map.get(SQSQueue.ATTR_DELAY_SECONDS);
+        String messageRetentionPeriod = map.get(SQSQueue.ATTR_MESSAGE_RETENTION_PERIOD);
+        String maximumMessageSize = map.get(SQSQueue.ATTR_MAXIMUM_MESSAGE_SIZE);
+        String visibilityTimeout = map.get(SQSQueue.ATTR_VISIBILITY_TIMEOUT);
+        String approximateNumberOfMessages = map.get(SQSQueue.ATTR_APPROXIMATE_NUMBER_OF_MESSAGES);
+        String lastModifiedTimestamp = map.get(SQSQueue.ATTR_LAST_MODIFIED_TIMESTAMP);
+        String queueArn = map.get(SQSQueue.ATTR_QUEUE_ARN);
+
+        final Map<String, String> tags;
+        if (tagIndex != null) {
+            tags = tagIndex.get(queueArn);
+        } else {
+            com.amazonaws.services.sqs.model.ListQueueTagsRequest tagsRequest =
+              new com.amazonaws.services.sqs.model.ListQueueTagsRequest().withQueueUrl(url);
+            com.amazonaws.services.sqs.model.ListQueueTagsResult tagsResult =
+              client.listQueueTags(tagsRequest);
+            tags = tagsResult.getTags();
+        }
+
+        final long fingerprint = ResourceReuse.fingerprint(map, tags);
+        final SQSQueue unchanged = reuse.unchanged(url, fingerprint);
+        if (unchanged != null)
+            return unchanged;
+
+        return new SQSQueue(url, Long.valueOf(approximateNumberOfMessagesDelayed),
+            Long.valueOf(receiveMessageWaitTimeSeconds), Long.valueOf(createdTimestamp),
+            Long.valueOf(delaySeconds), Long.valueOf(messageRetentionPeriod), Long.valueOf(maximumMessageSize),
+            Long.valueOf(visibilityTimeout), Long.valueOf(approximateNumberOfMessages),
+            Long.valueOf(lastModifiedTimestamp), queueArn, tags, fingerprint);
+    }
+
+    private List<InstanceStatus> collectEC2InstanceStatuses(final AmazonEC2Client client) throws Exception {
+        final List<InstanceStatus> statuses = new ArrayList<>();
+        paginate(new Pages<DescribeInstanceStatusResult>() {
+            @Override
+            DescribeInstanceStatusResult fetch(String token) {
+                return client.describeInstanceStatus(new DescribeInstanceStatusRequest()
+                    .withIncludeAllInstances(true)
+                    .withMaxResults(ec2PageSize)
+                    .withNextToken(token));
+            }
+
+            @Override
+            String nextToken(DescribeInstanceStatusResult page) {
+                return page.getNextToken();
+            }
+
+            @Override
+            void consume(DescribeInstanceStatusResult page) {
+                statuses.addAll(page.getInstanceStatuses());
+            }
+        });
+        return statuses;
+    }
+
+    /**
+     * @return copies of the queues with fresh message counts
+     */
+    private List<SQSQueue> collectSQSQueueDepths(final AmazonSQSClient client,
+                                                 final Collection<SQSQueue> queues) throws Exception {
+        final Map<String, SQSQueue> queuesByUrl = new LinkedHashMap<>(queues.size());
+        for (SQSQueue queue : queues)
+            queuesByUrl.put(queue.getUrl(), queue);
+        return describeConcurrently(queuesByUrl.keySet(), sqsDescribeConcurrency, new Function<String, SQSQueue>() {
+            @Override
+            public SQSQueue apply(String url) {
+                final Map<String, String> attributes;
+                try {
+                    attributes = client.getQueueAttributes(url, SQS_DEPTH_ATTRIBUTES).getAttributes();
+                } catch (QueueDoesNotExistException e) {
+                    // Left for the next crawl to remove
+                    return null;
+                }
+                return queuesByUrl.get(url).withDepth(
+                    Long.valueOf(attributes.get(SQSQueue.ATTR_APPROXIMATE_NUMBER_OF_MESSAGES)),
+                    Long.valueOf(attributes.get(SQSQueue.ATTR_APPROXIMATE_NUMBER_OF_MESSAGES_DELAYED)));
+            }
+        });
+    }
+
+    private List<DynamoTable> collectDynamoTables(final String regionName,
+                                                  final AmazonDynamoDBClient client,
+                                                  final ResourceReuse<DynamoTable> reuse) throws Exception {
+        log.info("Getting DynamoDB from {}", regionName);
+        final List<String> tableNames = new ArrayList<>();
+        final ListTablesRequest listTablesRequest = new ListTablesRequest().withLimit(DYNAMO_LIST_PAGE_SIZE);
+        ListTablesResult listTablesResult;
+        do {
+            listTablesResult = client.listTables(listTablesRequest);
+            tableNames.addAll(listTablesResult.getTableNames());
+            listTablesRequest.setExclusiveStartTableName(listTablesResult.getLastEvaluatedTableName());
+        } while (listTablesResult.getLastEvaluatedTableName() != null);
+
+        final TagIndex tagIndex = tableNames.isEmpty() ? null : tagIndex(regionName, "dynamodb:table");
+        // Paced by the AWS rate limit like every other call
+        final List<DynamoTable> tables = describeConcurrently(tableNames, dynamoDescribeConcurrency, new Function<String, DynamoTable>() {
+            @Override
+            public DynamoTable apply(String tableName) {
+                try {
+                    return describeDynamoTable(client, client.describeTable(tableName).getTable(), reuse, tagIndex);
+                } catch (ResourceNotFoundException e) {
+                    // Deleted since it was listed
+                    return null;
+                }
+            }
+        });
+
+        log.debug("Found {} dynamodbs in {}", tables.size(), regionName);
+        return tables;
+    }
+
+    /**
+     * @param tagIndex null to fetch the table's tags on its own
+     */
+    private DynamoTable describeDynamoTable(final AmazonDynamoDBClient client,
+                                            final TableDescription description,
+                                            final ResourceReuse<DynamoTable> reuse,
+                                            final TagIndex tagIndex) {
+        final Map<String, String> tags;
+        if (tagIndex != null) {
+            tags = tagIndex.get(description.getTableArn());
+        } else {
+            tags = new HashMap<>();
+            for (Tag tag : client.listTagsOfResource(
+                new ListTagsOfResourceRequest().withResourceArn(description.getTableArn())).getTags())
+                tags.put(tag.getKey(), tag.getValue());
+        }
+
+        final long fingerprint = ResourceReuse.fingerprint(description, tags);
+        final DynamoTable unchanged = reuse.unchanged(description.getTableName(), fingerprint);
+        return unchanged != null ? unchanged : new DynamoTable(description, tags, fingerprint);
+    }
+
+    private List<EC2Instance> collectEC2Instances(final String regionName,
+                                                  final AmazonEC2Client client,
+                                                  final ResourceReuse<EC2Instance> reuse) throws Exception {
+        final List<EC2Instance> instances = new ArrayList<>();
+        log.info("Getting EC2 reservations from {}", regionName);
+
+        paginate(new Pages<DescribeInstancesResult>() {
+            @Override
+            DescribeInstancesResult fetch(String token) {
+                return client.describeInstances(new DescribeInstancesRequest()
+                    .withMaxResults(ec2PageSize)
+                    .withNextToken(token));
+            }
+
+            @Override
+            String nextToken(DescribeInstancesResult page) {
+                return page.getNextToken();
+            }
+
+            @Override
+            void consume(DescribeInstancesResult page) {
+                log.debug("Found {} reservations in {}", page.getReservations().size(), regionName);
+                for (Reservation reservation : page.getReservations()) {
+                    for (Instance instance : reservation.getInstances()) {
+                        final long fingerprint = ResourceReuse.fingerprint(instance);
+                        final EC2Instance unchanged = reuse.unchanged(instance.getInstanceId(), fingerprint);
+                        instances.add(unchanged != null ? unchanged : new EC2Instance(instance, fingerprint));
+                    }
+                }
+            }
+        });
+        return instances;
+    }
+
+    private List<SecurityGroup> collectEC2SecurityGroups(final String regionName,
+                                                         final AmazonEC2Client client,
+                                                         final ResourceReuse<SecurityGroup> reuse) throws Exception {
+        log.info("Getting EC2 security groups from {}", regionName);
+        final List<SecurityGroup> securityGroups = new ArrayList<>();
+
+        paginate(new Pages<DescribeSecurityGroupsResult>() {
+            @Override
+            DescribeSecurityGroupsResult fetch(String token) {
+                return client.describeSecurityGroups(new DescribeSecurityGroupsRequest()
+                    .withMaxResults(ec2SecurityGroupsPageSize)
+                    .withNextToken(token));
+            }
+
+            @Override
+            String nextToken(DescribeSecurityGroupsResult page) {
+                return page.getNextToken();
+            }
+
+            @Override
+            void consume(DescribeSecurityGroupsResult page) {
+                for (SecurityGroup securityGroup : page.getSecurityGroups())
+                    securityGroups.add(reuse.same(securityGroup.getGroupId(), securityGroup));
+            }
+        });
+        log.debug("Found {} security groups in {}", securityGroups.size(), regionName);
+        return securityGroups;
+    }
+
+    private List<RDSInstance> collectRDSInstances(final String regionName,
+                                                  final AmazonRDSClient client,
+                                                  final ResourceReuse<RDSInstance> reuse,
+                                                  final String awsAccountNumber) throws Exception {
+        final List<RDSInstance> rdsInstances = new ArrayList<>();
+        final Map<String, DBCluster> instanceIdToCluster = new HashMap<>();
+
+        DescribeDBClustersRequest dbClustersRequest = new DescribeDBClustersRequest();
+        DescribeDBClustersResult clustersResult;
+
+        log.info("Getting RDS clusters from {}", regionName);
+
+        do {
+            log.debug("Performing RDS request: {}", dbClustersRequest);
+            clustersResult = client.describeDBClusters(dbClustersRequest);
+            final List<DBCluster> clusters = clustersResult.getDBClusters();
+            log.debug("Found {} DB clusters", clusters.size());
+            for (DBCluster cluster : clusters) {
+                for (DBClusterMember member : cluster.getDBClusterMembers()) {
+                    instanceIdToCluster.put(member.getDBInstanceIdentifier(), cluster);
+                }
+            }
+            dbClustersRequest.setMarker(clustersResult.getMarker());
+        } while (clustersResult.getMarker() != null);
+
+        DescribeDBInstancesRequest rdsRequest = new DescribeDBInstancesRequest();
+        DescribeDBInstancesResult result;
+
+        log.info("Getting RDS instances from {}", regionName);
+
+        final List<DBInstance> instances = new ArrayList<>();
+        do {
+            log.debug("Performing RDS request: {}", rdsRequest);
+            result = client.describeDBInstances(rdsRequest);
+            log.debug("Found {} RDS instances", result.getDBInstances().size());
+            instances.addAll(result.getDBInstances());
+            rdsRequest.setMarker(result.getMarker());
+        } while (result.getMarker() != null);
+
+        // Snapshots are only listed for masters, one region-wide walk per kind that is needed
+        boolean clusterMasters = false;
+        boolean instanceMasters = false;
+        for (DBInstance instance : instances) {
+            if (RDSInstance.checkIfMaster(instance, instanceIdToCluster.get(instance.getDBInstanceIdentifier()))) {
+                if (isAurora(instance))
+                    clusterMasters = true;
+                else
+                    instanceMasters = true;
+            }
+        }
+        final RDSSnapshots snapshots = new RDSSnapshots(
+            clusterMasters ? collectRDSClusterSnapshots(regionName, client) : ImmutableListMultimap.<String, String>of(),
+            instanceMasters ? collectRDSInstanceSnapshots(regionName, client) : ImmutableListMultimap.<String, String>of());
+
+        final TagIndex tagIndex = instances.isEmpty() ? null : tagIndex(regionName, "rds:db");
+        for (DBInstance instance : instances) {
+            rdsInstances.add(describeRDSInstance(regionName, client, instance,
+                instanceIdToCluster.get(instance.getDBInstanceIdentifier()), reuse, tagIndex, snapshots, awsAccountNumber));
+        }
+
+        return rdsInstances;
+    }
+
+    /**
+     * @return the automated snapshots of every cluster in the region, by cluster identifier
+     */
+    private ImmutableListMultimap<String, String> collectRDSClusterSnapshots(final String regionName,
+                                                                           final AmazonRDSClient client) throws Exception {
+        final ImmutableListMultimap.Builder<String, String> snapshots = ImmutableListMultimap.builder();
+        paginate(new Pages<DescribeDBClusterSnapshotsResult>() {
+            @Override
+            DescribeDBClusterSnapshotsResult fetch(String token) {
+                final DescribeDBClusterSnapshotsRequest request = new DescribeDBClusterSnapshotsRequest()
+                    .withSnapshotType("Automated")
+                    .withMaxRecords(RDS_SNAPSHOTS_PAGE_SIZE)
+                    .withMarker(token);
+                log.debug("Performing RDS request: {}", request);
+                return client.describeDBClusterSnapshots(request);
+            }
+
+            @Override
+            String nextToken(DescribeDBClusterSnapshotsResult page) {
+                return page.getMarker();
+            }
+
+            @Override
+            void consume(DescribeDBClusterSnapshotsResult page) {
+                for (DBClusterSnapshot snapshot : page.getDBClusterSnapshots())
+                    snapshots.put(snapshot.getDBClusterIdentifier(), snapshot.getDBClusterSnapshotIdentifier());
+            }
+        });
+        final ImmutableListMultimap<String, String> built = snapshots.build();
+        log.debug("Found {} DB cluster snapshots in {}", built.size(), regionName);
+        return built;
+    }
+
+    /**
+     * @return the snapshots of every instance in the region, by instance identifier
+     */
+    private ImmutableListMultimap<String, String> collectRDSInstanceSnapshots(final String regionName,
+                                                                            final AmazonRDSClient client) throws Exception {
+        final ImmutableListMultimap.Builder<String, String> snapshots = ImmutableListMultimap.builder();
+        paginate(new Pages<DescribeDBSnapshotsResult>() {
+            @Override
+            DescribeDBSnapshotsResult fetch(String token) {
+                final DescribeDBSnapshotsRequest request = new DescribeDBSnapshotsRequest()
+                    .withMaxRecords(RDS_SNAPSHOTS_PAGE_SIZE)
+                    .withMarker(token);
+                log.debug("Performing RDS request: {}", request);
+                return client.describeDBSnapshots(request);
+            }
+
+            @Override
+            String nextToken(DescribeDBSnapshotsResult page) {
+                return page.getMarker();
+            }
+
+            @Override
+            void consume(DescribeDBSnapshotsResult page) {
+                for (DBSnapshot snapshot : page.getDBSnapshots())
+                    snapshots.put(snapshot.getDBInstanceIdentifier(), snapshot.getDBSnapshotIdentifier());
+            }
+        });
+        final ImmutableListMultimap<String, String> built = snapshots.build();
+        log.debug("Found {} DB snapshots in {}", built.size(), regionName);
+        return built;
+    }
+
+    private static boolean isAurora(DBInstance instance) {
+        return "aurora".equals(instance.getEngine()) || "aurora-mysql".equals(instance.getEngine());
+    }
+
+    /**
+     * @param tagIndex null to fetch the instance's tags on its own
+     * @param regionSnapshots null to list the instance's snapshots on their own
+     */
+    private RDSInstance describeRDSInstance(final String regionName,
+                                           final AmazonRDSClient client,
+                                           final DBInstance instance,
+                                           final DBCluster cluster,
+                                           final ResourceReuse<RDSInstance> reuse,
+                                           final TagIndex tagIndex,
+                                           final RDSSnapshots regionSnapshots,
+                                           final String awsAccountNumber) {
+        final String arn = rdsARN(awsARNPartition, regionName, awsAccountNumber, instance);
+        final Map<String, String> tags;
+        if (tagIndex != null) {
+            tags = tagIndex.get(arn);
+        } else {
+            ListTagsForResourceRequest tagsRequest = new ListTagsForResourceRequest()
+                    .withResourceName(arn);
+
+            ListTagsForResourceResult tagsResult = client.listTagsForResource(tagsRequest);
+            tags = new HashMap<>();
+            for (com.amazonaws.services.rds.model.Tag tag : tagsResult.getTagList())
+                tags.put(tag.getKey(), tag.getValue());
+        }
+
+        List<String> snapshots = new ArrayList<>();
+        // Get snapshot for masters only.
+        if (RDSInstance.checkIfMaster(instance, cluster)) {
+           if (isAurora(instance)) {
+               if (regionSnapshots != null) {
+                   snapshots.addAll(regionSnapshots.byCluster.get(instance.getDBClusterIdentifier()));
+               } else {
+                   DescribeDBClusterSnapshotsRequest snapshotsRequest = new DescribeDBClusterSnapshotsRequest()
+                       .withDBClusterIdentifier(instance.getDBClusterIdentifier())
+                       .withSnapshotType("Automated");
+                   DescribeDBClusterSnapshotsResult snapshotsResult;
+                   do {
+                       snapshotsResult = client.describeDBClusterSnapshots(snapshotsRequest);
+                       for (DBClusterSnapshot s : snapshotsResult.getDBClusterSnapshots()) {
+                           snapshots.add(s.getDBClusterSnapshotIdentifier());
+                       }
+                       snapshotsRequest.setMarker(snapshotsResult.getMarker());
+                   } while (snapshotsResult.getMarker() != null);
+               }
+           } else {
+               if (regionSnapshots != null) {
+                   snapshots.addAll(regionSnapshots.byInstance.get(instance.getDBInstanceIdentifier()));
+               } else {
+                   DescribeDBSnapshotsRequest snapshotsRequest = new DescribeDBSnapshotsRequest()
+                       .withDBInstanceIdentifier(instance.getDBInstanceIdentifier());
+                   DescribeDBSnapshotsResult snapshotsResult;
+                   do {
+                       snapshotsResult = client.describeDBSnapshots(snapshotsRequest);
+                       for (DBSnapshot s : snapshotsResult.getDBSnapshots()) {
+                           snapshots.add(s.getDBSnapshotIdentifier());
+                       }
+                       snapshotsRequest.setMarker(snapshotsResult.getMarker());
+                   } while (snapshotsResult.getMarker() != null);
+               }
+           }
+        }
+
+        // An unchanged instance also keeps its resolved IP, a failover changes its availability zones
+        final long fingerprint = ResourceReuse.fingerprint(instance, cluster, tags, snapshots);
+        final RDSInstance unchanged = reuse.unchanged(instance.getDBInstanceIdentifier(), fingerprint);
+        return unchanged != null ? unchanged : new RDSInstance(instance, cluster, tags, snapshots, fingerprint);
+    }
+
+    private String rdsARN(String partition, String regionName, String accountNumber, DBInstance instance) {
+        return String.format(
+                "arn:%s:rds:%s:%s:db:%s",
+                partition,
+                regionName,
+                accountNumber,
+                instance.getDBInstanceIdentifier()
+        );
+    }
+
+    private String elasticacheARN(String partition, String regionName, String accountNumber, CacheCluster cacheCluster) {
+        return String.format(
+                "arn:%s:elasticache:%s:%s:cluster:%s",
+                partition,
+                regionName,
+                accountNumber,
+                cacheCluster.getCacheClusterId()
+        );
+    }
+
+    private String elasticsearchARN(String partition, String regionName, String accountNumber, String domainName) {
+        return String.format(
+                "arn:%s:es:%s:%s:domain/%s",
+                partition,
+                regionName,
+                accountNumber,
+                domainName
+        );
+    }
+
+    /**
+     * One paginated API call.
+     */
+    private static abstract class Pages<P> {
+        /**
+         * @param token from the previous page, null for the first one
+         */
+        abstract P fetch(String token) throws Exception;
+
+        abstract String nextToken(P page);
+
+        abstract void consume(P page);
+    }
+
+    /**
+     * The snapshot identifiers of one region, listed once and joined with every master.
+     */
+    private static final class RDSSnapshots {
+        private final ImmutableListMultimap<String, String> byCluster;
+        private final ImmutableListMultimap<String, String> byInstance;
+
+        RDSSnapshots(ImmutableListMultimap<String, String> byCluster, ImmutableListMultimap<String, String> byInstance) {
+            this.byCluster = byCluster;
+            this.byInstance = byInstance;
+        }
+    }
+
+    /**
+     * The in-flight regions of one service. {@link #get} waits for all of them and assembles the multimap,
+     * keeping regions in the order they were submitted.
+     * <p>
+     * A region that fails, does not finish within the deadline once started, or does not even start within it,
+     * keeps its resources from the previous snapshot and is reported as stale.
+     */
+    private static final class RegionalCrawl<T> {
+        private final AWSService service;
+        private final String region;
+        private final Map<String, Future<List<T>>> futures;
+        private final Map<String, AtomicLong> startTimes;
+        private final ImmutableMultimap<String, T> previous;
+        private final long deadlineInMs;
+        private final long submitTime = System.currentTimeMillis();
+        private final ImmutableMap.Builder<String, Long> staleRegions = ImmutableMap.builder();
+
+        RegionalCrawl(AWSService service,
+                      String region,
+                      Map<String, Future<List<T>>> futures,
+                      Map<String, AtomicLong> startTimes,
+                      ImmutableMultimap<String, T> previous,
+                      long deadlineInMs) {
+            this.service = service;
+            this.region = region;
+            this.futures = futures;
+            this.startTimes = startTimes;
+            this.previous = previous;
+            this.deadlineInMs = deadlineInMs;
+        }
+
+        /**
+         * @param previousDB the snapshot the previous resources come from, or null
+         */
+        ImmutableMultimap<String, T> get(AWSDatabase previousDB) {
+            final ImmutableMultimap.Builder<String, T> builder = new ImmutableMultimap.Builder<>();
+            for (Map.Entry<String, Future<List<T>>> regionFuture : futures.entrySet()) {
+                final String regionName = regionFuture.getKey();
+                try {
+                    builder.putAll(regionName, await(regionName, regionFuture.getValue()));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted while crawling " + service + " in " + regionName, e);
+                } catch (ExecutionException | TimeoutException e) {
+                    regionFuture.getValue().cancel(true);
+                    final long staleSince = previousDB == null ? 0 : previousDB.getTimestamp(service, regionName);
+                    log.warn("Failed to crawl {} in {}, keeping data from {}", service, regionName, staleSince,
+                        e instanceof ExecutionException ? e.getCause() : e);
+                    if (previous != null)
+                        builder.putAll(regionName, previous.get(regionName));
+                    staleRegions.put(regionName, staleSince);
+                }
+            }
+            return builder.build();
+        }
+
+        /**
+         * @return the regions that kept previous data in {@link #get}, with when that data was crawled
+         */
+        ImmutableMap<String, Long> getStaleRegions() {
+            return staleRegions.build();
+        }
+
+        /**
+         * @return the timestamp of the service once this crawl is applied to db
+         */
+        long timestampIn(AWSDatabase db, long timestamp) {
+            return region == null ? timestamp : db.getTimestamps().get(service);
+        }
+
+        /**
+         * @return the stale regions of the service once this crawl is applied to db
+         */
+        ImmutableMap<String, Long> staleRegionsIn(AWSDatabase db) {
+            if (region == null)
+                return getStaleRegions();
+            final Map<String, Long> stale = new HashMap<>(db.getStaleRegions(service));
+            stale.remove(region);
+            stale.putAll(getStaleRegions());
+            return ImmutableMap.copyOf(stale);
+        }
+
+        private List<T> await(String regionName, Future<List<T>> future)
+            throws InterruptedException, ExecutionException, TimeoutException {
+            while (true) {
+                final long started = startTimes.get(regionName).get();
+                final long deadline = (started == 0 ? submitTime : started) + deadlineInMs;
+                final long remaining = deadline - System.currentTimeMillis();
+                try {
+                    return future.get(Math.max(0, started == 0 ? Math.min(remaining, 1000) : remaining), TimeUnit.MILLISECONDS);
+                } catch (TimeoutException e) {
+                    // Queued ones get a fresh deadline once they start
+                    if (remaining <= 0 && startTimes.get(regionName).get() == started)
+                        throw e;
+                }
+            }
+        }
+
+        void cancel() {
+            for (Future<List<T>> future : futures.values())
+                future.cancel(true);
+        }
+    }
+
+    /**
+     * Runs at most {@code limit} tasks at once on the delegate, queueing the rest without holding a thread.
+     */
+    private static final class BoundedExecutor implements Executor {
+        private final Executor delegate;
+        private final int limit;
+        private final Queue<Runnable> pending = new ArrayDeque<>();
+        private int running = 0;
+
+        BoundedExecutor(Executor delegate, int limit) {
+            this.delegate = delegate;
+            this.limit = limit;
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            synchronized (this) {
+                pending.add(command);
+            }
+            schedule();
+        }
+
+        private void schedule() {
+            while (true) {
+                final Runnable next;
+                synchronized (this) {
+                    if (running >= limit || pending.isEmpty())
+                        return;
+                    next = pending.poll();
+                    running++;
+                }
+                try {
+                    delegate.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                next.run();
+                            } finally {
+                                synchronized (BoundedExecutor.this) {
+                                    running--;
+                                }
+                                schedule();
+                            }
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    synchronized (this) {
+                        running--;
+                    }
+                    // Nobody would ever complete it, so fail it right away
+                    if (next instanceof Future)
+                        ((Future<?>) next).cancel(false);
+                }
+            }
+        }
+    }
+}
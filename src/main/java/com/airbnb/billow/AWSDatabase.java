@@ -1,69 +1,27 @@
 package com.airbnb.billow;
 
-import com.amazonaws.services.elasticache.model.DescribeReplicationGroupsRequest;
-import com.amazonaws.services.elasticache.model.DescribeReplicationGroupsResult;
-import com.amazonaws.services.elasticache.model.NodeGroup;
-import com.amazonaws.services.elasticache.model.NodeGroupMember;
-import com.amazonaws.services.elasticache.model.ReplicationGroup;
-import com.amazonaws.services.elasticsearch.model.DescribeElasticsearchDomainRequest;
-import com.amazonaws.services.elasticsearch.model.DescribeElasticsearchDomainResult;
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
 import lombok.Data;
-import lombok.extern.slf4j.Slf4j;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.List;
+import java.util.Collections;
+import java.util.EnumMap;
 import java.util.Map;
 
-import com.amazonaws.services.dynamodbv2.AmazonDynamoDBClient;
-import com.amazonaws.services.dynamodbv2.document.DynamoDB;
-import com.amazonaws.services.dynamodbv2.document.Table;
-import com.amazonaws.services.dynamodbv2.document.TableCollection;
-import com.amazonaws.services.dynamodbv2.model.ListTablesResult;
-import com.amazonaws.services.ec2.AmazonEC2Client;
-import com.amazonaws.services.ec2.model.Instance;
-import com.amazonaws.services.ec2.model.Reservation;
 import com.amazonaws.services.ec2.model.SecurityGroup;
-import com.amazonaws.services.elasticache.AmazonElastiCacheClient;
-import com.amazonaws.services.elasticache.model.CacheCluster;
-import com.amazonaws.services.elasticache.model.DescribeCacheClustersRequest;
-import com.amazonaws.services.elasticache.model.DescribeCacheClustersResult;
-import com.amazonaws.services.elasticsearch.AWSElasticsearchClient;
-import com.amazonaws.services.elasticsearch.model.DomainInfo;
-import com.amazonaws.services.elasticsearch.model.ListDomainNamesRequest;
-import com.amazonaws.services.elasticsearch.model.ListDomainNamesResult;
-import com.amazonaws.services.elasticsearch.model.ListTagsRequest;
-import com.amazonaws.services.elasticsearch.model.ListTagsResult;
-import com.amazonaws.services.identitymanagement.AmazonIdentityManagement;
-import com.amazonaws.services.identitymanagement.model.AccessKeyMetadata;
-import com.amazonaws.services.identitymanagement.model.ListAccessKeysRequest;
-import com.amazonaws.services.identitymanagement.model.ListUsersRequest;
-import com.amazonaws.services.identitymanagement.model.ListUsersResult;
-import com.amazonaws.services.identitymanagement.model.User;
-import com.amazonaws.services.rds.AmazonRDSClient;
-import com.amazonaws.services.rds.model.DBCluster;
-import com.amazonaws.services.rds.model.DBClusterMember;
-import com.amazonaws.services.rds.model.DBClusterSnapshot;
-import com.amazonaws.services.rds.model.DBInstance;
-import com.amazonaws.services.rds.model.DBSnapshot;
-import com.amazonaws.services.rds.model.DescribeDBClusterSnapshotsRequest;
-import com.amazonaws.services.rds.model.DescribeDBClusterSnapshotsResult;
-import com.amazonaws.services.rds.model.DescribeDBClustersRequest;
-import com.amazonaws.services.rds.model.DescribeDBClustersResult;
-import com.amazonaws.services.rds.model.DescribeDBInstancesRequest;
-import com.amazonaws.services.rds.model.DescribeDBInstancesResult;
-import com.amazonaws.services.rds.model.DescribeDBSnapshotsRequest;
-import com.amazonaws.services.rds.model.DescribeDBSnapshotsResult;
-import com.amazonaws.services.rds.model.ListTagsForResourceRequest;
-import com.amazonaws.services.rds.model.ListTagsForResourceResult;
-import com.amazonaws.services.sqs.AmazonSQSClient;
-import com.amazonaws.services.sqs.model.ListQueuesResult;
+import com.google.common.base.Function;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableMultimap;
+import com.google.common.collect.Maps;
 
-@Slf4j
+/**
+ * An immutable snapshot of everything billow knows about, as built by {@link AWSCrawler}.
+ * Each collection remembers when it was crawled, so one can be swapped for a fresher one
+ * while the others are shared with the previous snapshot.
+ */
 @Data
+@AllArgsConstructor(access = AccessLevel.PACKAGE)
 public class AWSDatabase {
     private final ImmutableMultimap<String, EC2Instance> ec2Instances;
     private final ImmutableMultimap<String, DynamoTable> dynamoTables;
@@ -73,372 +31,181 @@ public class AWSDatabase {
     private final ImmutableMultimap<String, ElasticacheCluster> elasticacheClusters;
     private final ImmutableMultimap<String, ElasticsearchCluster> elasticsearchClusters;
     private final ImmutableList<IAMUserWithKeys> iamUsers;
-    private final long timestamp;
-    private String awsAccountNumber;
-    private String awsARNPartition;
-
-    AWSDatabase(final Map<String, AmazonEC2Client> ec2Clients,
-                final Map<String, AmazonRDSClient> rdsClients,
-                final Map<String, AmazonDynamoDBClient> dynamoClients,
-                final Map<String, AmazonSQSClient> sqsClients,
-                final Map<String, AmazonElastiCacheClient> elasticacheClients,
-                final Map<String, AWSElasticsearchClient> elasticsearchClients,
-                final AmazonIdentityManagement iamClient,
-                final String configAWSAccountNumber,
-                final String configAWSARNPartition) {
-        timestamp = System.currentTimeMillis();
-        log.info("Building AWS DB with timestamp {}", timestamp);
-
-        log.info("Getting EC2 instances");
-        final ImmutableMultimap.Builder<String, EC2Instance> ec2InstanceBuilder = new ImmutableMultimap.Builder<>();
-        final ImmutableMultimap.Builder<String, DynamoTable> dynamoTableBuilder = new ImmutableMultimap.Builder<>();
-        final ImmutableMultimap.Builder<String, SQSQueue> sqsQueueBuilder = new ImmutableMultimap.Builder<>();
-        final ImmutableMultimap.Builder<String, ElasticacheCluster> elasticacheClusterBuilder =
-            new ImmutableMultimap.Builder<>();
-        final ImmutableMultimap.Builder<String, ElasticsearchCluster> elasticsearchClusterBuilder =
-            new ImmutableMultimap.Builder<>();
-
-        if (configAWSAccountNumber == null) {
-            awsAccountNumber = "";
-        } else {
-            log.info("using account number '{}' from config", configAWSAccountNumber);
-            awsAccountNumber = configAWSAccountNumber;
-        }
-
-        if (configAWSARNPartition == null) {
-            awsARNPartition = "aws";
-        } else {
-            log.info("using arn partition '{}' from config", configAWSARNPartition);
-            awsARNPartition = configAWSARNPartition;
-        }
-
-        /*
-         * IAM keys
-         * Put this in the beginning to populate the awsAccountNumber.
-         */
-
-        log.info("Getting IAM keys");
-        final ImmutableList.Builder<IAMUserWithKeys> usersBuilder = new ImmutableList.Builder<>();
-
-        final ListUsersRequest listUsersRequest = new ListUsersRequest();
-        ListUsersResult listUsersResult;
-        do {
-            log.debug("Performing IAM request: {}", listUsersRequest);
-            listUsersResult = iamClient.listUsers(listUsersRequest);
-            final List<User> users = listUsersResult.getUsers();
-            log.debug("Found {} users", users.size());
-            for (User user : users) {
-                final ListAccessKeysRequest listAccessKeysRequest = new ListAccessKeysRequest();
-                listAccessKeysRequest.setUserName(user.getUserName());
-                final List<AccessKeyMetadata> accessKeyMetadata = iamClient.listAccessKeys(listAccessKeysRequest).getAccessKeyMetadata();
-
-                final IAMUserWithKeys userWithKeys = new IAMUserWithKeys(user, ImmutableList.<AccessKeyMetadata>copyOf(accessKeyMetadata));
-                usersBuilder.add(userWithKeys);
-
-                if (awsAccountNumber.isEmpty()) {
-                    awsAccountNumber = user.getArn().split(":")[4];
-                }
-            }
-            listUsersRequest.setMarker(listUsersResult.getMarker());
-        } while (listUsersResult.isTruncated());
-        this.iamUsers = usersBuilder.build();
-
-
-        /*
-         * ElasticCache
-         */
-
-        for (Map.Entry<String, AmazonElastiCacheClient> clientPair : elasticacheClients.entrySet()) {
-            final String regionName = clientPair.getKey();
-            final AmazonElastiCacheClient client = clientPair.getValue();
-            final Map<String, NodeGroupMember> clusterIdToNodeGroupMember = new HashMap<>();
-            DescribeCacheClustersRequest describeCacheClustersRequest = new DescribeCacheClustersRequest();
-            DescribeReplicationGroupsRequest describeReplicationGroupsRequest = new DescribeReplicationGroupsRequest();
-            DescribeCacheClustersResult describeCacheClustersResult;
-            DescribeReplicationGroupsResult describeReplicationGroupsResult;
-
-            do {
-                log.info("Getting Elasticache replication groups from {} with marker {}", regionName, describeReplicationGroupsRequest.getMarker());
-
-                describeReplicationGroupsResult = client.describeReplicationGroups(describeReplicationGroupsRequest);
-
-                for (ReplicationGroup replicationGroup: describeReplicationGroupsResult.getReplicationGroups()) {
-                    for (NodeGroup nodeGroup: replicationGroup.getNodeGroups()) {
-                        for (NodeGroupMember nodeGroupMember: nodeGroup.getNodeGroupMembers()) {
-                            clusterIdToNodeGroupMember.put(nodeGroupMember.getCacheClusterId(), nodeGroupMember);
-                        }
-                    }
-                }
-
-                describeReplicationGroupsRequest.setMarker(describeReplicationGroupsResult.getMarker());
-            } while (describeReplicationGroupsResult.getMarker() != null);
-
-            do {
-                log.info("Getting Elasticache from {} with marker {}", regionName, describeCacheClustersRequest.getMarker());
-
-                describeCacheClustersResult = client.describeCacheClusters(describeCacheClustersRequest);
-                int cntClusters = 0;
-
-                for (CacheCluster cluster : describeCacheClustersResult.getCacheClusters()) {
-                    com.amazonaws.services.elasticache.model.ListTagsForResourceRequest tagsRequest =
-                        new com.amazonaws.services.elasticache.model.ListTagsForResourceRequest()
-                            .withResourceName(elasticacheARN(awsARNPartition, regionName, awsAccountNumber, cluster));
-
-                    com.amazonaws.services.elasticache.model.ListTagsForResourceResult tagsResult =
-                        client.listTagsForResource(tagsRequest);
-                    elasticacheClusterBuilder.putAll(regionName, new ElasticacheCluster(cluster, clusterIdToNodeGroupMember.get(cluster.getCacheClusterId()), tagsResult.getTagList()));
-                    cntClusters++;
-                }
-
-                log.debug("Found {} cache clusters in {}", cntClusters, regionName);
-
-                describeCacheClustersRequest.setMarker(describeCacheClustersResult.getMarker());
-            } while (describeCacheClustersResult.getMarker() != null);
-
-
-        }
-        this.elasticacheClusters = elasticacheClusterBuilder.build();
-
-        /*
-         * Elasticsearch
-         */
-
-        for (Map.Entry<String, AWSElasticsearchClient> clientPair : elasticsearchClients.entrySet()) {
-            final String regionName = clientPair.getKey();
-            final AWSElasticsearchClient client = clientPair.getValue();
-            ListDomainNamesRequest domainNamesRequest = new ListDomainNamesRequest();
-            ListDomainNamesResult domainNamesResult = client.listDomainNames(domainNamesRequest);
-
-            List<DomainInfo> domainInfoList = domainNamesResult.getDomainNames();
-            for (DomainInfo domainInfo : domainInfoList) {
-                ListTagsRequest listTagsRequest = new ListTagsRequest();
-                listTagsRequest.setARN(elasticsearchARN(awsARNPartition, regionName, awsAccountNumber, domainInfo.getDomainName()));
-                ListTagsResult tagList = client.listTags(listTagsRequest);
-
-                DescribeElasticsearchDomainRequest describeDomainRequest = new DescribeElasticsearchDomainRequest();
-                describeDomainRequest.setDomainName(domainInfo.getDomainName());
-                DescribeElasticsearchDomainResult describeDomainResult = client.describeElasticsearchDomain(describeDomainRequest);
-
-                elasticsearchClusterBuilder.putAll(regionName, new ElasticsearchCluster(describeDomainResult.getDomainStatus(), tagList.getTagList()));
-            }
-            log.debug("Found {} Elasticsearch domains in {}", domainInfoList.size(), regionName);
-
-        }
-        this.elasticsearchClusters = elasticsearchClusterBuilder.build();
-
-        /*
-         * SQS Queues
-         */
-
-        for (Map.Entry<String, AmazonSQSClient> clientPair : sqsClients.entrySet()) {
-            final String regionName = clientPair.getKey();
-            final AmazonSQSClient client = clientPair.getValue();
-            ListQueuesResult queues = client.listQueues();
-
-            log.info("Getting SQS from {}", regionName);
-            int cnt = 0;
-            for (String url : queues.getQueueUrls()) {
-                List<String> attrs = new ArrayList<>();
-                attrs.add("All");
-
-                Map<String, String> map = client.getQueueAttributes(url, attrs).getAttributes();
-                String approximateNumberOfMessagesDelayed = map.get(SQSQueue.ATTR_APPROXIMATE_NUMBER_OF_MESSAGES_DELAYED);
-                String receiveMessageWaitTimeSeconds = map.get(SQSQueue.ATTR_RECEIVE_MESSAGE_WAIT_TIME_SECONDS);
-                String createdTimestamp = map.get(SQSQueue.ATTR_CREATED_TIMESTAMP);
-                String delaySeconds = map.get(SQSQueue.ATTR_DELAY_SECONDS);
-                String messageRetentionPeriod = map.get(SQSQueue.ATTR_MESSAGE_RETENTION_PERIOD);
-                String maximumMessageSize = map.get(SQSQueue.ATTR_MAXIMUM_MESSAGE_SIZE);
-                String visibilityTimeout = map.get(SQSQueue.ATTR_VISIBILITY_TIMEOUT);
-                String approximateNumberOfMessages = map.get(SQSQueue.ATTR_APPROXIMATE_NUMBER_OF_MESSAGES);
-                String lastModifiedTimestamp = map.get(SQSQueue.ATTR_LAST_MODIFIED_TIMESTAMP);
-                String queueArn = map.get(SQSQueue.ATTR_QUEUE_ARN);
-
-                com.amazonaws.services.sqs.model.ListQueueTagsRequest tagsRequest =
-                  new com.amazonaws.services.sqs.model.ListQueueTagsRequest().withQueueUrl(url);
-                com.amazonaws.services.sqs.model.ListQueueTagsResult tagsResult =
-                  client.listQueueTags(tagsRequest);
-
-                SQSQueue queue = new SQSQueue(url, Long.valueOf(approximateNumberOfMessagesDelayed),
-                    Long.valueOf(receiveMessageWaitTimeSeconds), Long.valueOf(createdTimestamp),
-                    Long.valueOf(delaySeconds), Long.valueOf(messageRetentionPeriod), Long.valueOf(maximumMessageSize),
-                    Long.valueOf(visibilityTimeout), Long.valueOf(approximateNumberOfMessages),
-                    Long.valueOf(lastModifiedTimestamp), queueArn, tagsResult.getTags());
-
-                sqsQueueBuilder.putAll(regionName, queue);
-                cnt++;
-            }
-
-            log.debug("Found {} queues in {}", cnt, regionName);
-        }
-        this.sqsQueues = sqsQueueBuilder.build();
-
-        /*
-         * DynamoDB Tables
-         */
+    private final ImmutableMap<AWSService, Long> timestamps;
+    /**
+     * Regions whose last crawl failed or timed out, with when their data was crawled, by service.
+     * Their data comes from an earlier snapshot. Services without such regions are left out.
+     */
+    private final ImmutableMap<AWSService, ImmutableMap<String, Long>> staleRegions;
+    private final String awsAccountNumber;
+    private final String awsARNPartition;
+
+    /**
+     * @return when the oldest data was crawled
+     */
+    public long getTimestamp() {
+        long timestamp = Long.MAX_VALUE;
+        for (AWSService service : AWSService.values())
+            timestamp = Math.min(timestamp, getTimestamp(service));
+        return timestamp;
+    }
 
-        for (Map.Entry<String, AmazonDynamoDBClient> clientPair : dynamoClients.entrySet()) {
-            final String regionName = clientPair.getKey();
-            final AmazonDynamoDBClient client = clientPair.getValue();
-            final DynamoDB dynamoDB = new DynamoDB(client);
-            TableCollection<ListTablesResult> tables = dynamoDB.listTables();
-            Iterator<Table> iterator = tables.iterator();
+    /**
+     * @return when the oldest data of the service was crawled, stale regions included
+     */
+    public long getTimestamp(AWSService service) {
+        final ImmutableMap<String, Long> stale = getStaleRegions(service);
+        return stale.isEmpty() ? timestamps.get(service) : Math.min(timestamps.get(service), Collections.min(stale.values()));
+    }
 
-            log.info("Getting DynamoDB from {}", regionName);
-            int cnt = 0;
-            while (iterator.hasNext()) {
-                Table table = iterator.next();
-                dynamoTableBuilder.putAll(regionName, new DynamoTable(table, client));
-                cnt++;
-            }
+    /**
+     * @return when the data of that service in that region was crawled
+     */
+    public long getTimestamp(AWSService service, String region) {
+        final Long stale = getStaleRegions(service).get(region);
+        return stale == null ? timestamps.get(service) : stale;
+    }
 
-            log.debug("Found {} dynamodbs in {}", cnt, regionName);
-        }
-        this.dynamoTables = dynamoTableBuilder.build();
+    public ImmutableMap<String, Long> getStaleRegions(AWSService service) {
+        final ImmutableMap<String, Long> stale = staleRegions.get(service);
+        return stale == null ? ImmutableMap.<String, Long>of() : stale;
+    }
 
-        /*
-         * EC2 Instances
-         */
+    public long getAgeInMs() {
+        return System.currentTimeMillis() - getTimestamp();
+    }
 
-        for (Map.Entry<String, AmazonEC2Client> clientPair : ec2Clients.entrySet()) {
-            final String regionName = clientPair.getKey();
-            final AmazonEC2Client client = clientPair.getValue();
+    public long getAgeInMs(AWSService service) {
+        return System.currentTimeMillis() - getTimestamp(service);
+    }
 
-            log.info("Getting EC2 reservations from {}", regionName);
+    static ImmutableMap<AWSService, Long> timestampsAt(long timestamp) {
+        final Map<AWSService, Long> timestamps = new EnumMap<>(AWSService.class);
+        for (AWSService service : AWSService.values())
+            timestamps.put(service, timestamp);
+        return Maps.immutableEnumMap(timestamps);
+    }
 
-            final List<Reservation> reservations = client.describeInstances().getReservations();
-            log.debug("Found {} reservations in {}", reservations.size(), regionName);
-            for (Reservation reservation : reservations) {
-                for (Instance instance : reservation.getInstances())
-                    ec2InstanceBuilder.putAll(regionName, new EC2Instance(instance));
+    /**
+     * @param resource the new version of the resource, or null to remove it
+     * @return the collection with the resource of that id in that region replaced, added or removed
+     */
+    static <T> ImmutableMultimap<String, T> replace(ImmutableMultimap<String, T> resources,
+                                                    String region,
+                                                    String id,
+                                                    T resource,
+                                                    Function<? super T, String> idFunction) {
+        final ImmutableMultimap.Builder<String, T> builder = new ImmutableMultimap.Builder<>();
+        boolean replaced = false;
+        for (Map.Entry<String, T> entry : resources.entries()) {
+            if (!replaced && entry.getKey().equals(region) && idFunction.apply(entry.getValue()).equals(id)) {
+                replaced = true;
+                if (resource != null)
+                    builder.put(region, resource);
+            } else {
+                builder.put(entry);
             }
         }
-        this.ec2Instances = ec2InstanceBuilder.build();
-
-        /*
-         * EC2 security groups
-         */
-
-        log.info("Getting EC2 security groups");
-        final ImmutableMultimap.Builder<String, SecurityGroup> ec2SGbuilder = new ImmutableMultimap.Builder<String, SecurityGroup>();
-        for (Map.Entry<String, AmazonEC2Client> clientPair : ec2Clients.entrySet()) {
-            final String regionName = clientPair.getKey();
-            final AmazonEC2Client client = clientPair.getValue();
-            final List<SecurityGroup> securityGroups = client.describeSecurityGroups().getSecurityGroups();
-            log.debug("Found {} security groups in {}", securityGroups.size(), regionName);
-            ec2SGbuilder.putAll(regionName, securityGroups);
-        }
-        this.ec2SGs = ec2SGbuilder.build();
-
-
-        /*
-         * RDS Instances
-         */
-
-        log.info("Getting RDS instances and clusters");
-        final ImmutableMultimap.Builder<String, RDSInstance> rdsBuilder = new ImmutableMultimap.Builder<String, RDSInstance>();
+        if (!replaced && resource != null)
+            builder.put(region, resource);
+        return builder.build();
+    }
 
-        for (Map.Entry<String, AmazonRDSClient> clientPair : rdsClients.entrySet()) {
-            final String regionName = clientPair.getKey();
-            final AmazonRDSClient client = clientPair.getValue();
-            final Map<String, DBCluster> instanceIdToCluster = new HashMap<>();
+    private ImmutableMap<AWSService, Long> timestampsWith(AWSService service, long timestamp) {
+        final Map<AWSService, Long> updated = new EnumMap<>(timestamps);
+        updated.put(service, timestamp);
+        return Maps.immutableEnumMap(updated);
+    }
 
-            DescribeDBClustersRequest dbClustersRequest = new DescribeDBClustersRequest();
-            DescribeDBClustersResult clustersResult;
+    private ImmutableMap<AWSService, ImmutableMap<String, Long>> staleRegionsWith(AWSService service,
+                                                                                 ImmutableMap<String, Long> stale) {
+        final Map<AWSService, ImmutableMap<String, Long>> updated = new EnumMap<>(AWSService.class);
+        updated.putAll(staleRegions);
+        if (stale.isEmpty())
+            updated.remove(service);
+        else
+            updated.put(service, stale);
+        return Maps.immutableEnumMap(updated);
+    }
 
-            log.info("Getting RDS clusters from {}", regionName);
+    AWSDatabase withEc2Instances(ImmutableMultimap<String, EC2Instance> ec2Instances, long timestamp, ImmutableMap<String, Long> stale) {
+        return new AWSDatabase(ec2Instances, dynamoTables, rdsInstances, ec2SGs, sqsQueues,
+            elasticacheClusters, elasticsearchClusters, iamUsers,
+            timestampsWith(AWSService.EC2_INSTANCES, timestamp), staleRegionsWith(AWSService.EC2_INSTANCES, stale),
+            awsAccountNumber, awsARNPartition);
+    }
 
-            do {
-                log.debug("Performing RDS request: {}", dbClustersRequest);
-                clustersResult = client.describeDBClusters(dbClustersRequest);
-                final List<DBCluster> clusters = clustersResult.getDBClusters();
-                log.debug("Found {} DB clusters", clusters.size());
-                for (DBCluster cluster : clusters) {
-                    for (DBClusterMember member : cluster.getDBClusterMembers()) {
-                        instanceIdToCluster.put(member.getDBInstanceIdentifier(), cluster);
-                    }
-                }
-                dbClustersRequest.setMarker(clustersResult.getMarker());
-            } while (clustersResult.getMarker() != null);
+    /**
+     * Like the other single-argument copies, for resources patched between crawls:
+     * the collection keeps its timestamp and stale regions.
+     */
+    AWSDatabase withEc2Instances(ImmutableMultimap<String, EC2Instance> ec2Instances) {
+        return withEc2Instances(ec2Instances, timestamps.get(AWSService.EC2_INSTANCES), getStaleRegions(AWSService.EC2_INSTANCES));
+    }
 
-            DescribeDBInstancesRequest rdsRequest = new DescribeDBInstancesRequest();
-            DescribeDBInstancesResult result;
+    AWSDatabase withDynamoTables(ImmutableMultimap<String, DynamoTable> dynamoTables, long timestamp, ImmutableMap<String, Long> stale) {
+        return new AWSDatabase(ec2Instances, dynamoTables, rdsInstances, ec2SGs, sqsQueues,
+            elasticacheClusters, elasticsearchClusters, iamUsers,
+            timestampsWith(AWSService.DYNAMODB, timestamp), staleRegionsWith(AWSService.DYNAMODB, stale),
+            awsAccountNumber, awsARNPartition);
+    }
 
-            log.info("Getting RDS instances from {}", regionName);
+    AWSDatabase withDynamoTables(ImmutableMultimap<String, DynamoTable> dynamoTables) {
+        return withDynamoTables(dynamoTables, timestamps.get(AWSService.DYNAMODB), getStaleRegions(AWSService.DYNAMODB));
+    }
 
-            do {
-                log.debug("Performing RDS request: {}", rdsRequest);
-                result = client.describeDBInstances(rdsRequest);
-                final List<DBInstance> instances = result.getDBInstances();
-                log.debug("Found {} RDS instances", instances.size());
-                for (DBInstance instance : instances) {
-                    ListTagsForResourceRequest tagsRequest = new ListTagsForResourceRequest()
-                            .withResourceName(rdsARN(awsARNPartition, regionName, awsAccountNumber, instance));
+    AWSDatabase withRdsInstances(ImmutableMultimap<String, RDSInstance> rdsInstances, long timestamp, ImmutableMap<String, Long> stale) {
+        return new AWSDatabase(ec2Instances, dynamoTables, rdsInstances, ec2SGs, sqsQueues,
+            elasticacheClusters, elasticsearchClusters, iamUsers,
+            timestampsWith(AWSService.RDS, timestamp), staleRegionsWith(AWSService.RDS, stale),
+            awsAccountNumber, awsARNPartition);
+    }
 
-                    ListTagsForResourceResult tagsResult = client.listTagsForResource(tagsRequest);
+    AWSDatabase withRdsInstances(ImmutableMultimap<String, RDSInstance> rdsInstances) {
+        return withRdsInstances(rdsInstances, timestamps.get(AWSService.RDS), getStaleRegions(AWSService.RDS));
+    }
 
-                    List<String> snapshots = new ArrayList<>();
-                    // Get snapshot for masters only.
-                    if (RDSInstance.checkIfMaster(instance, instanceIdToCluster.get(instance.getDBInstanceIdentifier()))) {
-                       if ("aurora".equals(instance.getEngine()) || "aurora-mysql".equals(instance.getEngine())) {
-                           DescribeDBClusterSnapshotsRequest snapshotsRequest = new DescribeDBClusterSnapshotsRequest()
-                               .withDBClusterIdentifier(instance.getDBClusterIdentifier())
-                               .withSnapshotType("Automated");
-                           DescribeDBClusterSnapshotsResult snapshotsResult = client.describeDBClusterSnapshots(snapshotsRequest);
-                           for (DBClusterSnapshot s : snapshotsResult.getDBClusterSnapshots()) {
-                               snapshots.add(s.getDBClusterSnapshotIdentifier());
-                           }
-                       } else {
-                           DescribeDBSnapshotsRequest snapshotsRequest = new DescribeDBSnapshotsRequest()
-                               .withDBInstanceIdentifier(instance.getDBInstanceIdentifier());
-                           DescribeDBSnapshotsResult snapshotsResult = client.describeDBSnapshots(snapshotsRequest);
-                           for (DBSnapshot s : snapshotsResult.getDBSnapshots()) {
-                               snapshots.add(s.getDBSnapshotIdentifier());
-                           }
-                       }
-                    }
-                    rdsBuilder.putAll(regionName, new RDSInstance(instance,
-                        instanceIdToCluster.get(instance.getDBInstanceIdentifier()), tagsResult.getTagList(), snapshots));
+    AWSDatabase withEc2SGs(ImmutableMultimap<String, SecurityGroup> ec2SGs, long timestamp, ImmutableMap<String, Long> stale) {
+        return new AWSDatabase(ec2Instances, dynamoTables, rdsInstances, ec2SGs, sqsQueues,
+            elasticacheClusters, elasticsearchClusters, iamUsers,
+            timestampsWith(AWSService.EC2_SECURITY_GROUPS, timestamp), staleRegionsWith(AWSService.EC2_SECURITY_GROUPS, stale),
+            awsAccountNumber, awsARNPartition);
+    }
 
-                }
-                rdsRequest.setMarker(result.getMarker());
-            } while (result.getMarker() != null);
-        }
-        this.rdsInstances = rdsBuilder.build();
+    AWSDatabase withEc2SGs(ImmutableMultimap<String, SecurityGroup> ec2SGs) {
+        return withEc2SGs(ec2SGs, timestamps.get(AWSService.EC2_SECURITY_GROUPS), getStaleRegions(AWSService.EC2_SECURITY_GROUPS));
+    }
 
-        log.info("Done building AWS DB");
+    AWSDatabase withSqsQueues(ImmutableMultimap<String, SQSQueue> sqsQueues, long timestamp, ImmutableMap<String, Long> stale) {
+        return new AWSDatabase(ec2Instances, dynamoTables, rdsInstances, ec2SGs, sqsQueues,
+            elasticacheClusters, elasticsearchClusters, iamUsers,
+            timestampsWith(AWSService.SQS, timestamp), staleRegionsWith(AWSService.SQS, stale),
+            awsAccountNumber, awsARNPartition);
     }
 
-    public long getAgeInMs() {
-        return System.currentTimeMillis() - getTimestamp();
+    AWSDatabase withSqsQueues(ImmutableMultimap<String, SQSQueue> sqsQueues) {
+        return withSqsQueues(sqsQueues, timestamps.get(AWSService.SQS), getStaleRegions(AWSService.SQS));
     }
 
-    private String rdsARN(String partition, String regionName, String accountNumber, DBInstance instance) {
-        return String.format(
-                "arn:%s:rds:%s:%s:db:%s",
-                partition,
-                regionName,
-                accountNumber,
-                instance.getDBInstanceIdentifier()
-        );
+    AWSDatabase withElasticacheClusters(ImmutableMultimap<String, ElasticacheCluster> elasticacheClusters, long timestamp, ImmutableMap<String, Long> stale) {
+        return new AWSDatabase(ec2Instances, dynamoTables, rdsInstances, ec2SGs, sqsQueues,
+            elasticacheClusters, elasticsearchClusters, iamUsers,
+            timestampsWith(AWSService.ELASTICACHE, timestamp), staleRegionsWith(AWSService.ELASTICACHE, stale),
+            awsAccountNumber, awsARNPartition);
     }
 
-    private String elasticacheARN(String partition, String regionName, String accountNumber, CacheCluster cacheCluster) {
-        return String.format(
-                "arn:%s:elasticache:%s:%s:cluster:%s",
-                partition,
-                regionName,
-                accountNumber,
-                cacheCluster.getCacheClusterId()
-        );
+    AWSDatabase withElasticsearchClusters(ImmutableMultimap<String, ElasticsearchCluster> elasticsearchClusters, long timestamp, ImmutableMap<String, Long> stale) {
+        return new AWSDatabase(ec2Instances, dynamoTables, rdsInstances, ec2SGs, sqsQueues,
+            elasticacheClusters, elasticsearchClusters, iamUsers,
+            timestampsWith(AWSService.ELASTICSEARCH, timestamp), staleRegionsWith(AWSService.ELASTICSEARCH, stale),
+            awsAccountNumber, awsARNPartition);
     }
 
-    private String elasticsearchARN(String partition, String regionName, String accountNumber, String domainName) {
-        return String.format(
-                "arn:%s:es:%s:%s:domain/%s",
-                partition,
-                regionName,
-                accountNumber,
-                domainName
-        );
+    AWSDatabase withIamUsers(ImmutableList<IAMUserWithKeys> iamUsers, String awsAccountNumber, long timestamp,
+                             ImmutableMap<String, Long> stale) {
+        return new AWSDatabase(ec2Instances, dynamoTables, rdsInstances, ec2SGs, sqsQueues,
+            elasticacheClusters, elasticsearchClusters, iamUsers,
+            timestampsWith(AWSService.IAM, timestamp), staleRegionsWith(AWSService.IAM, stale),
+            awsAccountNumber, awsARNPartition);
     }
 }
@@ -3,12 +3,20 @@ package com.airbnb.billow;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.EnumSet;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
+import com.amazonaws.AmazonClientException;
 import com.amazonaws.ClientConfiguration;
 import com.amazonaws.auth.DefaultAWSCredentialsProviderChain;
+import com.amazonaws.handlers.RequestHandler2;
 import com.amazonaws.retry.RetryPolicy;
 import com.amazonaws.services.dynamodbv2.AmazonDynamoDBClient;
 import com.amazonaws.services.ec2.AmazonEC2Client;
@@ -20,34 +28,62 @@ import com.amazonaws.services.elasticsearch.AWSElasticsearchClient;
 import com.amazonaws.services.identitymanagement.AmazonIdentityManagement;
 import com.amazonaws.services.identitymanagement.AmazonIdentityManagementClientBuilder;
 import com.amazonaws.services.rds.AmazonRDSClient;
+import com.amazonaws.services.resourcegroupstaggingapi.AWSResourceGroupsTaggingAPI;
+import com.amazonaws.services.resourcegroupstaggingapi.AWSResourceGroupsTaggingAPIClient;
+import com.amazonaws.services.securitytoken.AWSSecurityTokenServiceClientBuilder;
 import com.amazonaws.services.sqs.AmazonSQSClient;
+import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.health.HealthCheck;
+import com.google.common.base.Function;
+import com.google.common.base.Throwables;
 import com.google.common.collect.Maps;
 import com.typesafe.config.Config;
 
 @Slf4j
 public class AWSDatabaseHolder {
+    private static final String REBUILD = "rebuild";
+
     private final Map<String, AmazonEC2Client> ec2Clients;
     private final Map<String, AmazonRDSClient> rdsClients;
     private final Map<String, AmazonDynamoDBClient> dynamoDBClients;
     private final Map<String, AmazonSQSClient> sqsClients;
     private final Map<String, AmazonElastiCacheClient> elasticacheClients;
     private final Map<String, AWSElasticsearchClient> elasticsearchClients;
+    private final Map<String, AWSResourceGroupsTaggingAPI> taggingClients;
     private final AmazonIdentityManagement iamClient;
+    private final AWSCrawler crawler;
+    private final AWSDatabaseSnapshotStore snapshotStore;
+    private final RefreshCoordinator refreshCoordinator = new RefreshCoordinator();
+    /**
+     * Null until the first crawl completes or a snapshot is restored.
+     */
     @Getter
-    private AWSDatabase current;
+    private volatile AWSDatabase current;
+    private final long startTime;
     private final long maxAgeInMs;
-    private final String awsAccountNumber;
-    private final String awsARNPartition;
+    private final long refreshRateInMs;
+    private final Map<AWSService, Long> refreshRatesInMs;
 
-    public AWSDatabaseHolder(Config config) {
+    public AWSDatabaseHolder(Config config, MetricRegistry metricRegistry) {
+        startTime = System.currentTimeMillis();
         maxAgeInMs = config.getDuration("maxAge", TimeUnit.MILLISECONDS);
+        refreshRateInMs = config.getDuration("refreshRate", TimeUnit.MILLISECONDS);
+
+        refreshRatesInMs = new EnumMap<>(AWSService.class);
+        final Config refreshRatesConfig = config.getConfig("refreshRates");
+        for (AWSService service : AWSService.values()) {
+            final long rate = refreshRatesConfig.getDuration(service.getConfigName(), TimeUnit.MILLISECONDS);
+            log.debug("Refreshing {} every {} ms", service, rate);
+            refreshRatesInMs.put(service, rate);
+        }
 
         final DefaultAWSCredentialsProviderChain awsCredentialsProviderChain = new DefaultAWSCredentialsProviderChain();
 
-        final ClientConfiguration clientConfig = new ClientConfiguration();
-        clientConfig.setRetryPolicy(new RetryPolicy(null, null, config.getInt("maxErrorRetry"), true));
-        clientConfig.setSocketTimeout(config.getInt("socketTimeout") * 1000);
+        final ClientConfiguration clientConfig = clientConfiguration(config);
+
+        final RequestHandler2 rateLimiter = config.getBoolean("rateLimit.enabled") ?
+            new AdaptiveRateLimiter(config.getConfig("rateLimit"), metricRegistry) :
+            new RequestHandler2() {};
 
         final AmazonEC2 bootstrapEC2Client = AmazonEC2ClientBuilder.standard().withCredentials(awsCredentialsProviderChain).build();
 
@@ -57,6 +93,8 @@ public class AWSDatabaseHolder {
         dynamoDBClients = Maps.newHashMap();
         elasticacheClients = Maps.newHashMap();
         elasticsearchClients = Maps.newHashMap();
+        taggingClients = Maps.newHashMap();
+        final boolean bulkTags = config.getBoolean("crawl.bulkTags");
 
         final List<Region> ec2Regions = bootstrapEC2Client.describeRegions().getRegions();
         for (Region region : ec2Regions) {
@@ -67,12 +105,14 @@ public class AWSDatabaseHolder {
             if (config.getBoolean("ec2Enabled")) {
                 final AmazonEC2Client ec2Client = new AmazonEC2Client(awsCredentialsProviderChain, clientConfig);
                 ec2Client.setEndpoint(endpoint);
+                ec2Client.addRequestHandler(rateLimiter);
                 ec2Clients.put(regionName, ec2Client);
             }
 
             if (config.getBoolean("rdsEnabled")) {
                 final AmazonRDSClient rdsClient = new AmazonRDSClient(awsCredentialsProviderChain, clientConfig);
                 rdsClient.setEndpoint(endpoint.replaceFirst("ec2\\.", "rds."));
+                rdsClient.addRequestHandler(rateLimiter);
                 rdsClients.put(regionName, rdsClient);
             }
 
@@ -80,12 +120,14 @@ public class AWSDatabaseHolder {
                 final AmazonDynamoDBClient dynamoDBClient =
                     new AmazonDynamoDBClient(awsCredentialsProviderChain, clientConfig);
                 dynamoDBClient.setEndpoint(endpoint.replaceFirst("ec2\\.", "dynamodb."));
+                dynamoDBClient.addRequestHandler(rateLimiter);
                 dynamoDBClients.put(regionName, dynamoDBClient);
             }
 
             if (config.getBoolean("sqsEnabled")) {
                 final AmazonSQSClient sqsClient = new AmazonSQSClient(awsCredentialsProviderChain, clientConfig);
                 sqsClient.setEndpoint(endpoint.replaceFirst("ec2\\.", "sqs."));
+                sqsClient.addRequestHandler(rateLimiter);
                 sqsClients.put(regionName, sqsClient);
             }
 
@@ -93,6 +135,7 @@ public class AWSDatabaseHolder {
                 final AmazonElastiCacheClient elastiCacheClient = new AmazonElastiCacheClient
                     (awsCredentialsProviderChain, clientConfig);
                 elastiCacheClient.setEndpoint(endpoint.replaceFirst("ec2\\.", "elasticache."));
+                elastiCacheClient.addRequestHandler(rateLimiter);
                 elasticacheClients.put(regionName, elastiCacheClient);
             }
 
@@ -100,32 +143,41 @@ public class AWSDatabaseHolder {
                 final AWSElasticsearchClient elasticsearchClient = new AWSElasticsearchClient
                     (awsCredentialsProviderChain, clientConfig);
                 elasticsearchClient.setEndpoint(endpoint.replaceFirst("ec2\\.", "es."));
+                elasticsearchClient.addRequestHandler(rateLimiter);
                 elasticsearchClients.put(regionName, elasticsearchClient);
             }
+
+            if (bulkTags) {
+                final AWSResourceGroupsTaggingAPIClient taggingClient = new AWSResourceGroupsTaggingAPIClient
+                    (awsCredentialsProviderChain, clientConfig);
+                taggingClient.setEndpoint(endpoint.replaceFirst("ec2\\.", "tagging."));
+                taggingClient.addRequestHandler(rateLimiter);
+                taggingClients.put(regionName, taggingClient);
+            }
         }
 
         this.iamClient = AmazonIdentityManagementClientBuilder.standard()
             .withCredentials(awsCredentialsProviderChain)
             .withClientConfiguration(clientConfig)
+            .withRequestHandlers(rateLimiter)
             .build();
 
+        final String awsAccountNumber;
         if (config.hasPath("accountNumber")) {
-            this.awsAccountNumber = config.getString("accountNumber");
+            awsAccountNumber = config.getString("accountNumber");
         } else {
-            this.awsAccountNumber = null;
+            awsAccountNumber = null;
         }
 
+        final String awsARNPartition;
         if (config.hasPath("arnPartition")) {
-            this.awsARNPartition = config.getString("arnPartition");
+            awsARNPartition = config.getString("arnPartition");
         } else {
-            this.awsARNPartition = "aws";
+            awsARNPartition = "aws";
         }
 
-        rebuild();
-    }
-
-    public void rebuild() {
-        current = new AWSDatabase(
+        this.crawler = new AWSCrawler(
+            config.getConfig("crawl"),
             ec2Clients,
             rdsClients,
             dynamoDBClients,
@@ -133,19 +185,233 @@ public class AWSDatabaseHolder {
             elasticacheClients,
             elasticsearchClients,
             iamClient,
+            AWSSecurityTokenServiceClientBuilder.standard()
+                .withCredentials(awsCredentialsProviderChain)
+                .withClientConfiguration(clientConfig)
+                .withRequestHandlers(rateLimiter)
+                .build(),
+            taggingClients,
             awsAccountNumber,
             awsARNPartition);
+
+        final Config snapshotConfig = config.getConfig("snapshot");
+        if (snapshotConfig.getBoolean("enabled")) {
+            this.snapshotStore = new AWSDatabaseSnapshotStore(snapshotConfig);
+            final AWSDatabase restored = snapshotStore.loadNewest();
+            if (restored != null && awsAccountNumber != null && !awsAccountNumber.equals(restored.getAwsAccountNumber())) {
+                log.warn("Ignoring snapshot of account {}", restored.getAwsAccountNumber());
+            } else if (restored != null) {
+                // Serve it right away, the refresh jobs will catch up in the background
+                ResourceIndex.warm(restored);
+                current = restored;
+            }
+        } else {
+            this.snapshotStore = null;
+        }
+    }
+
+    /**
+     * Shared by every client. Each client still owns its connection pool, so pools are kept small,
+     * reuse their connections and let idle ones go.
+     */
+    private static ClientConfiguration clientConfiguration(Config config) {
+        final Config httpConfig = config.getConfig("http");
+        final ClientConfiguration clientConfig = new ClientConfiguration();
+        clientConfig.setRetryPolicy(new RetryPolicy(null, null, config.getInt("maxErrorRetry"), true));
+        clientConfig.setSocketTimeout(config.getInt("socketTimeout") * 1000);
+        clientConfig.setMaxConnections(httpConfig.getInt("maxConnections"));
+        clientConfig.setConnectionTimeout((int) httpConfig.getDuration("connectionTimeout", TimeUnit.MILLISECONDS));
+        clientConfig.setRequestTimeout((int) httpConfig.getDuration("requestTimeout", TimeUnit.MILLISECONDS));
+        clientConfig.setUseTcpKeepAlive(httpConfig.getBoolean("tcpKeepAlive"));
+        clientConfig.setConnectionMaxIdleMillis(httpConfig.getDuration("maxIdle", TimeUnit.MILLISECONDS));
+        clientConfig.setConnectionTTL(httpConfig.getDuration("connectionTTL", TimeUnit.MILLISECONDS));
+        return clientConfig;
+    }
+
+    /**
+     * @return whether there is a DB to serve
+     */
+    public boolean isReady() {
+        return current != null;
+    }
+
+    public void rebuild() {
+        await(requestRebuild());
+    }
+
+    /**
+     * @return completes once the database was rebuilt, possibly along with other requests
+     */
+    public Future<?> requestRebuild() {
+        return refreshCoordinator.request(REBUILD, EnumSet.allOf(AWSService.class), new Runnable() {
+            @Override
+            public void run() {
+                final AWSDatabase rebuilt = crawler.crawl(current);
+                ResourceIndex.warm(rebuilt);
+                synchronized (AWSDatabaseHolder.this) {
+                    current = rebuilt;
+                    persist();
+                }
+            }
+        });
+    }
+
+    /**
+     * Crawls one service and publishes a snapshot sharing every other collection with the current one.
+     */
+    public void refresh(AWSService service) {
+        await(requestRefresh(service, null));
+    }
+
+    /**
+     * Same as {@link #refresh(AWSService)} without waiting, possibly limited to one region.
+     *
+     * @param region the region to crawl, or null for all of them
+     * @return completes once the service was refreshed, possibly along with other requests
+     * @throws IllegalArgumentException if the service is not crawled in that region
+     */
+    public Future<?> requestRefresh(final AWSService service, final String region) {
+        if (region != null && !crawler.getRegions(service).contains(region))
+            throw new IllegalArgumentException(service.getConfigName() + " is not crawled in " + region);
+
+        final String key = region == null ? service.getConfigName() : service.getConfigName() + "/" + region;
+        return refreshCoordinator.request(key, EnumSet.of(service), new Runnable() {
+            @Override
+            public void run() {
+                if (!isReady()) {
+                    log.info("Not refreshing {} before the initial rebuild", key);
+                    return;
+                }
+                final Function<AWSDatabase, AWSDatabase> update = crawler.crawl(service, region, current);
+                final AWSDatabase updated;
+                synchronized (AWSDatabaseHolder.this) {
+                    updated = update.apply(current);
+                    current = updated;
+                    persist();
+                }
+                ResourceIndex.warm(updated);
+            }
+        });
+    }
+
+    private static void await(Future<?> refresh) {
+        try {
+            refresh.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for a refresh", e);
+        } catch (ExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        }
+    }
+
+    /**
+     * Polls the fields that go stale within seconds and patches them into the current snapshot.
+     * Not persisted on its own, the values would be stale by the time a snapshot is restored.
+     */
+    public void refreshVolatile() {
+        if (!isReady())
+            return;
+        final Function<AWSDatabase, AWSDatabase> update = crawler.crawlVolatile(current);
+        final AWSDatabase updated;
+        synchronized (this) {
+            updated = update.apply(current);
+            current = updated;
+        }
+        ResourceIndex.warm(updated);
+    }
+
+    /**
+     * Applies targeted updates between crawls. Timestamps are left alone, they track full crawls.
+     * Events received before the initial rebuild are dropped, the rebuild sees their effects anyway.
+     * So are events whose resource fails to be described, the next crawl repairs it.
+     *
+     * @return how many events were skipped because their resource failed to be described
+     */
+    public int apply(Collection<ChangeEvent> events) {
+        if (!isReady()) {
+            log.debug("Not applying {} events before the initial rebuild", events.size());
+            return 0;
+        }
+
+        final List<Function<AWSDatabase, AWSDatabase>> updates = new ArrayList<>(events.size());
+        for (ChangeEvent event : events) {
+            try {
+                updates.add(crawler.crawl(event));
+            } catch (AmazonClientException e) {
+                log.warn("Skipping change event {}, failed to describe it", event, e);
+            }
+        }
+        final int skipped = events.size() - updates.size();
+        if (updates.isEmpty())
+            return skipped;
+
+        AWSDatabase updated;
+        synchronized (this) {
+            updated = current;
+            for (Function<AWSDatabase, AWSDatabase> update : updates)
+                updated = update.apply(updated);
+            current = updated;
+            persist();
+        }
+        ResourceIndex.warm(updated);
+        log.info("Applied {} change events", updates.size());
+        return skipped;
+    }
+
+    private void persist() {
+        if (snapshotStore != null)
+            snapshotStore.saveAsync(current);
+    }
+
+    public long getRefreshRateInMs(AWSService service) {
+        return refreshRatesInMs.get(service);
+    }
+
+    public void shutdown() {
+        refreshCoordinator.shutdown();
+        crawler.shutdown();
+        if (snapshotStore != null)
+            snapshotStore.shutdown();
     }
 
     public HealthCheck.Result healthy() {
-        final long ageInMs = current.getAgeInMs();
-        if (ageInMs < maxAgeInMs)
+        final AWSDatabase db = current;
+        if (db == null) {
+            // Give the initial crawl as long as a refresh would get
+            final long startingForMs = System.currentTimeMillis() - startTime;
+            if (startingForMs < maxAgeInMs)
+                return HealthCheck.Result.healthy("Waiting for the initial crawl since " + startingForMs + " ms");
+            else
+                return HealthCheck.Result.unhealthy("No DB after " + startingForMs + " ms");
+        }
+        for (AWSService service : AWSService.values()) {
+            final long ageInMs = db.getAgeInMs(service);
+            if (ageInMs >= getMaxAgeInMs(service))
+                return HealthCheck.Result.unhealthy(service + " too old: " + ageInMs + " ms");
+        }
+        return HealthCheck.Result.healthy();
+    }
+
+    public HealthCheck.Result ready() {
+        if (isReady())
             return HealthCheck.Result.healthy();
         else
-            return HealthCheck.Result.unhealthy("DB too old: " + ageInMs + " ms");
+            return HealthCheck.Result.unhealthy("Waiting for the initial crawl");
     }
 
     public long getCacheTimeInMs() {
         return maxAgeInMs - current.getAgeInMs();
     }
+
+    public long getCacheTimeInMs(AWSService service) {
+        return getMaxAgeInMs(service) - current.getAgeInMs(service);
+    }
+
+    /**
+     * Services refreshed less often than refreshRate get the same slack on top of their own rate.
+     */
+    private long getMaxAgeInMs(AWSService service) {
+        return maxAgeInMs + Math.max(0, refreshRatesInMs.get(service) - refreshRateInMs);
+    }
 }
@@ -1,25 +1,40 @@
 package com.airbnb.billow;
 
 import com.codahale.metrics.Counter;
+import org.quartz.DisallowConcurrentExecution;
 import org.quartz.Job;
 import org.quartz.JobExecutionContext;
 import org.quartz.JobExecutionException;
 import org.quartz.SchedulerException;
 
+@DisallowConcurrentExecution
 public class AWSDatabaseHolderRefreshJob implements Job {
     public static final String DB_KEY              = "db";
     public static final String FAILURE_COUNTER_KEY = "failure_counter";
     public static final String START_COUNTER_KEY   = "start_counter";
     public static final String SUCCESS_COUNTER_KEY = "success_counter";
     public static final String NAME                = "dbRefresh";
+    /**
+     * Job data naming the {@link AWSService} to refresh. Without it, the whole database is rebuilt
+     * until the holder is ready, then the job unschedules itself.
+     */
+    public static final String SERVICE_KEY         = "service";
 
     @Override
     public void execute(JobExecutionContext context) throws JobExecutionException {
         try {
             increment(START_COUNTER_KEY, context);
-            ((AWSDatabaseHolder) context.getScheduler().getContext().get(DB_KEY)).rebuild();
+            final AWSDatabaseHolder dbHolder = (AWSDatabaseHolder) context.getScheduler().getContext().get(DB_KEY);
+            final String service = context.getMergedJobDataMap().getString(SERVICE_KEY);
+            if (service == null) {
+                if (!dbHolder.isReady())
+                    dbHolder.rebuild();
+                context.getScheduler().unscheduleJob(context.getTrigger().getKey());
+            } else {
+                dbHolder.refresh(AWSService.valueOf(service));
+            }
             increment(SUCCESS_COUNTER_KEY, context);
-        } catch (SchedulerException e) {
+        } catch (SchedulerException | RuntimeException e) {
             increment(FAILURE_COUNTER_KEY, context);
             throw new JobExecutionException(e);
         }
@@ -0,0 +1,228 @@
+package com.airbnb.billow;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import com.amazonaws.services.ec2.model.SecurityGroup;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableMultimap;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.typesafe.config.Config;
+
+/**
+ * Persists published {@link AWSDatabase} snapshots so a restarted billow can serve right away.
+ * <p>
+ * A snapshot file is a header (magic, format version, payload length, CRC32 of the payload)
+ * followed by the gzipped, Java-serialized collections. Files that fail any check are skipped on load.
+ */
+@Slf4j
+public class AWSDatabaseSnapshotStore {
+    private static final int MAGIC = 0x42494c57; // "BILW"
+    private static final int FORMAT_VERSION = 3;
+    private static final String PREFIX = "billow-";
+    private static final String SUFFIX = ".snapshot";
+
+    private final File directory;
+    private final int retain;
+    private final ExecutorService writer;
+    private final AtomicReference<AWSDatabase> pending = new AtomicReference<>();
+
+    public AWSDatabaseSnapshotStore(Config config) {
+        this.directory = new File(config.getString("directory"));
+        this.retain = config.getInt("retain");
+        this.writer = Executors.newSingleThreadExecutor(
+            new ThreadFactoryBuilder().setNameFormat("snapshot-writer").setDaemon(true).build());
+    }
+
+    /**
+     * @return the newest snapshot that passes every check, or null if there is none
+     */
+    public AWSDatabase loadNewest() {
+        for (File file : listSnapshots()) {
+            try {
+                final AWSDatabase db = read(file);
+                log.info("Loaded snapshot {} ({} ms old)", file, db.getAgeInMs());
+                return db;
+            } catch (Exception e) {
+                log.warn("Ignoring unreadable snapshot {}", file, e);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Queues a snapshot for writing. Snapshots published faster than they can be written are coalesced,
+     * only the latest one is written.
+     */
+    public void saveAsync(AWSDatabase db) {
+        if (pending.getAndSet(db) != null)
+            return;
+        writer.execute(new Runnable() {
+            @Override
+            public void run() {
+                final AWSDatabase latest = pending.getAndSet(null);
+                if (latest == null)
+                    return;
+                try {
+                    save(latest);
+                } catch (Exception e) {
+                    log.error("Could not persist snapshot", e);
+                }
+            }
+        });
+    }
+
+    public void shutdown() {
+        writer.shutdown();
+    }
+
+    void save(AWSDatabase db) throws IOException {
+        final long start = System.currentTimeMillis();
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Cannot create snapshot directory " + directory);
+
+        final byte[] payload = serialize(db);
+        final CRC32 crc = new CRC32();
+        crc.update(payload);
+
+        final File target = new File(directory, PREFIX + start + SUFFIX);
+        final File temp = new File(directory, target.getName() + ".tmp");
+        try (FileOutputStream fileStream = new FileOutputStream(temp);
+             DataOutputStream out = new DataOutputStream(fileStream)) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(payload.length);
+            out.writeLong(crc.getValue());
+            out.write(payload);
+            out.flush();
+            fileStream.getFD().sync();
+        }
+        Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        log.info("Persisted snapshot {} ({} bytes) in {} ms",
+            target, payload.length, System.currentTimeMillis() - start);
+
+        final List<File> snapshots = listSnapshots();
+        for (File stale : snapshots.subList(Math.min(retain, snapshots.size()), snapshots.size())) {
+            if (!stale.delete())
+                log.warn("Could not delete old snapshot {}", stale);
+        }
+    }
+
+    AWSDatabase read(File file) throws IOException, ClassNotFoundException {
+        final byte[] payload;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file.toPath())))) {
+            if (in.readInt() != MAGIC)
+                throw new IOException("Not a billow snapshot");
+            final int version = in.readInt();
+            if (version != FORMAT_VERSION)
+                throw new IOException("Unsupported snapshot version " + version);
+            final int length = in.readInt();
+            final long checksum = in.readLong();
+            if (length < 0 || length > file.length())
+                throw new IOException("Corrupted snapshot length " + length);
+            payload = new byte[length];
+            in.readFully(payload);
+
+            final CRC32 crc = new CRC32();
+            crc.update(payload);
+            if (crc.getValue() != checksum)
+                throw new IOException("Snapshot checksum mismatch");
+        }
+        return deserialize(payload);
+    }
+
+    private static byte[] serialize(AWSDatabase db) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(new GZIPOutputStream(bytes))) {
+            out.writeObject(db.getEc2Instances());
+            out.writeObject(db.getDynamoTables());
+            out.writeObject(db.getRdsInstances());
+            out.writeObject(db.getEc2SGs());
+            out.writeObject(db.getSqsQueues());
+            out.writeObject(db.getElasticacheClusters());
+            out.writeObject(db.getElasticsearchClusters());
+            out.writeObject(db.getIamUsers());
+            out.writeObject(db.getTimestamps());
+            out.writeObject(db.getStaleRegions());
+            out.writeObject(db.getAwsAccountNumber());
+            out.writeObject(db.getAwsARNPartition());
+        }
+        return bytes.toByteArray();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static AWSDatabase deserialize(byte[] payload) throws IOException, ClassNotFoundException {
+        try (InputStream gunzipped = new GZIPInputStream(new ByteArrayInputStream(payload));
+             ObjectInputStream in = new ObjectInputStream(gunzipped)) {
+            return new AWSDatabase(
+                (ImmutableMultimap<String, EC2Instance>) in.readObject(),
+                (ImmutableMultimap<String, DynamoTable>) in.readObject(),
+                (ImmutableMultimap<String, RDSInstance>) in.readObject(),
+                (ImmutableMultimap<String, SecurityGroup>) in.readObject(),
+                (ImmutableMultimap<String, SQSQueue>) in.readObject(),
+                (ImmutableMultimap<String, ElasticacheCluster>) in.readObject(),
+                (ImmutableMultimap<String, ElasticsearchCluster>) in.readObject(),
+                (ImmutableList<IAMUserWithKeys>) in.readObject(),
+                (ImmutableMap<AWSService, Long>) in.readObject(),
+                (ImmutableMap<AWSService, ImmutableMap<String, Long>>) in.readObject(),
+                (String) in.readObject(),
+                (String) in.readObject());
+        }
+    }
+
+    /**
+     * @return snapshot files, newest first
+     */
+    private List<File> listSnapshots() {
+        final File[] files = directory.listFiles();
+        if (files == null)
+            return Collections.emptyList();
+
+        final List<File> snapshots = new ArrayList<>();
+        for (File file : files) {
+            final String name = file.getName();
+            if (name.startsWith(PREFIX) && name.endsWith(SUFFIX))
+                snapshots.add(file);
+        }
+        Collections.sort(snapshots, Collections.reverseOrder(new Comparator<File>() {
+            @Override
+            public int compare(File f1, File f2) {
+                return Long.compare(timestampOf(f1), timestampOf(f2));
+            }
+        }));
+        return snapshots;
+    }
+
+    private static long timestampOf(File file) {
+        final String name = file.getName();
+        try {
+            return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
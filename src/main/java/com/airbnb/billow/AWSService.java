@@ -0,0 +1,27 @@
+package com.airbnb.billow;
+
+import lombok.Getter;
+
+/**
+ * The collections making up an {@link AWSDatabase}, each crawled independently.
+ */
+public enum AWSService {
+    IAM("iam"),
+    EC2_INSTANCES("ec2"),
+    EC2_SECURITY_GROUPS("ec2SecurityGroups"),
+    RDS("rds"),
+    DYNAMODB("dynamodb"),
+    SQS("sqs"),
+    ELASTICACHE("elasticache"),
+    ELASTICSEARCH("elasticsearch");
+
+    /**
+     * Key used for this service in configuration blocks and metric names.
+     */
+    @Getter
+    private final String configName;
+
+    AWSService(String configName) {
+        this.configName = configName;
+    }
+}
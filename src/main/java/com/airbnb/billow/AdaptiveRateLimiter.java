@@ -0,0 +1,129 @@
+package com.airbnb.billow;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.Request;
+import com.amazonaws.handlers.HandlerAfterAttemptContext;
+import com.amazonaws.handlers.HandlerBeforeAttemptContext;
+import com.amazonaws.handlers.RequestHandler2;
+import com.amazonaws.retry.RetryUtils;
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.util.concurrent.RateLimiter;
+import com.typesafe.config.Config;
+
+/**
+ * Paces every attempt of every AWS call with one token bucket per (service, endpoint, operation).
+ * <p>
+ * A throttled attempt halves the rate of its bucket, at most once a second since concurrent attempts
+ * tend to be throttled together. Then each second with successful attempts adds a little back, up to the
+ * configured maximum; idle time between crawls does not count. Crawls thus settle at the highest rate AWS sustains
+ * instead of running into throttling and sleeping through the SDK's exponential backoff.
+ * Rates and throttle counts are reported as {@code billow.aws.<service>.<endpoint>.<operation>.{rate,throttled}}.
+ */
+@Slf4j
+public class AdaptiveRateLimiter extends RequestHandler2 {
+    private static final long WINDOW_IN_MS = 1000;
+    private final double initialRate;
+    private final double minRate;
+    private final double maxRate;
+    private final double recoveryPerSecond;
+    private final MetricRegistry metricRegistry;
+    private final ConcurrentMap<String, Bucket> buckets = new ConcurrentHashMap<>();
+
+    public AdaptiveRateLimiter(Config config, MetricRegistry metricRegistry) {
+        this.initialRate = config.getDouble("initialRate");
+        this.minRate = config.getDouble("minRate");
+        this.maxRate = config.getDouble("maxRate");
+        this.recoveryPerSecond = config.getDouble("recoveryPerSecond");
+        this.metricRegistry = metricRegistry;
+    }
+
+    @Override
+    public void beforeAttempt(HandlerBeforeAttemptContext context) {
+        bucket(context.getRequest()).rateLimiter.acquire();
+    }
+
+    @Override
+    public void afterAttempt(HandlerAfterAttemptContext context) {
+        final Bucket bucket = bucket(context.getRequest());
+        final Exception exception = context.getException();
+        if (exception instanceof AmazonServiceException
+            && RetryUtils.isThrottlingException((AmazonServiceException) exception)) {
+            bucket.throttled();
+        } else {
+            bucket.recover();
+        }
+    }
+
+    private Bucket bucket(Request<?> request) {
+        final String key = MetricRegistry.name(
+            request.getServiceName(),
+            request.getEndpoint().getHost().replace('.', '_'),
+            operation(request));
+        Bucket bucket = buckets.get(key);
+        if (bucket == null) {
+            final Bucket created = new Bucket(key);
+            bucket = buckets.putIfAbsent(key, created);
+            if (bucket == null) {
+                bucket = created;
+                metricRegistry.register(MetricRegistry.name("billow", "aws", key, "rate"), new Gauge<Double>() {
+                    @Override
+                    public Double getValue() {
+                        return created.rateLimiter.getRate();
+                    }
+                });
+            }
+        }
+        return bucket;
+    }
+
+    private static String operation(Request<?> request) {
+        final String name = request.getOriginalRequest().getClass().getSimpleName();
+        return name.endsWith("Request") ? name.substring(0, name.length() - "Request".length()) : name;
+    }
+
+    private final class Bucket {
+        private final String key;
+        private final RateLimiter rateLimiter;
+        private final Counter throttles;
+        private long lastChangeInMs;
+        private long lastDecreaseInMs;
+
+        Bucket(String key) {
+            this.key = key;
+            this.rateLimiter = RateLimiter.create(initialRate);
+            this.throttles = metricRegistry.counter(MetricRegistry.name("billow", "aws", key, "throttled"));
+            this.lastChangeInMs = System.currentTimeMillis();
+        }
+
+        synchronized void throttled() {
+            throttles.inc();
+            final long now = System.currentTimeMillis();
+            // Attempts in flight during the last decrease were sent at the old rate
+            if (now - lastDecreaseInMs < WINDOW_IN_MS)
+                return;
+            final double rate = Math.max(minRate, rateLimiter.getRate() / 2);
+            log.info("Throttled on {}, slowing down to {} requests/s", key, rate);
+            rateLimiter.setRate(rate);
+            lastChangeInMs = now;
+            lastDecreaseInMs = now;
+        }
+
+        synchronized void recover() {
+            final long now = System.currentTimeMillis();
+            final double rate = rateLimiter.getRate();
+            if (rate >= maxRate || now - lastChangeInMs < WINDOW_IN_MS)
+                return;
+            // At most a second's worth, however long the bucket sat idle
+            final long elapsed = Math.min(now - lastChangeInMs, WINDOW_IN_MS);
+            rateLimiter.setRate(Math.min(maxRate, rate + recoveryPerSecond * elapsed / 1000));
+            lastChangeInMs = now;
+        }
+    }
+}
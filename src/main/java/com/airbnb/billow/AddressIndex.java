@@ -0,0 +1,157 @@
+package com.airbnb.billow;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMultimap;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+/**
+ * EC2 instances by private and public IP and hostname, built once per snapshot collection like {@link ResourceIndex}.
+ * <p>
+ * Addresses and hostnames are looked up in a hash map. IPv4 addresses are also kept sorted, so that a CIDR block
+ * is answered with a binary search for its first address and a walk to its last.
+ */
+final class AddressIndex {
+    private static final Cache<ImmutableMultimap<String, EC2Instance>, AddressIndex> INDEXES =
+        CacheBuilder.newBuilder().weakKeys().build();
+
+    private final Map<String, List<EC2Instance>> byAddress = new HashMap<>();
+    // Sorted by address, an instance appears once per IP it has
+    private final long[] ips;
+    private final EC2Instance[] owners;
+
+    private AddressIndex(ImmutableList<EC2Instance> instances) {
+        final List<Map.Entry<Long, EC2Instance>> sorted = new ArrayList<>();
+        for (EC2Instance instance : instances) {
+            for (String ip : Arrays.asList(instance.getPrivateIP(), instance.getPublicIP())) {
+                if (ip == null)
+                    continue;
+                add(ip, instance);
+                final long parsed = parseIPv4(ip);
+                if (parsed >= 0)
+                    sorted.add(new HashMap.SimpleImmutableEntry<>(parsed, instance));
+            }
+            for (String hostname : Arrays.asList(instance.getPrivateHostname(), instance.getPublicHostname())) {
+                if (hostname != null && !hostname.isEmpty())
+                    add(hostname.toLowerCase(Locale.ROOT), instance);
+            }
+        }
+        // Stable, instances sharing an address stay in collection order
+        Collections.sort(sorted, new Comparator<Map.Entry<Long, EC2Instance>>() {
+            @Override
+            public int compare(Map.Entry<Long, EC2Instance> a, Map.Entry<Long, EC2Instance> b) {
+                return Long.compare(a.getKey(), b.getKey());
+            }
+        });
+        this.ips = new long[sorted.size()];
+        this.owners = new EC2Instance[sorted.size()];
+        for (int i = 0; i < ips.length; i++) {
+            ips[i] = sorted.get(i).getKey();
+            owners[i] = sorted.get(i).getValue();
+        }
+    }
+
+    private void add(String address, EC2Instance instance) {
+        List<EC2Instance> owners = byAddress.get(address);
+        if (owners == null) {
+            owners = new ArrayList<>(1);
+            byAddress.put(address, owners);
+        }
+        if (!owners.contains(instance))
+            owners.add(instance);
+    }
+
+    static AddressIndex of(final ImmutableMultimap<String, EC2Instance> instances) {
+        try {
+            return INDEXES.get(instances, new Callable<AddressIndex>() {
+                @Override
+                public AddressIndex call() {
+                    return new AddressIndex(instances.values().asList());
+                }
+            });
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            throw new IllegalStateException("Failed to index EC2 addresses", e.getCause());
+        }
+    }
+
+    /**
+     * @param address an IP, a hostname, or an IPv4 CIDR block such as {@code 10.2.0.0/16}
+     * @return the instances owning it, or with an IP in the block ordered by that IP
+     * @throws IllegalArgumentException if the CIDR block is malformed
+     */
+    List<EC2Instance> lookup(String address) {
+        final int slash = address.indexOf('/');
+        if (slash < 0) {
+            final List<EC2Instance> owners = byAddress.get(address.toLowerCase(Locale.ROOT));
+            return owners == null ? Collections.<EC2Instance>emptyList() : Collections.unmodifiableList(owners);
+        }
+
+        final long base = parseIPv4(address.substring(0, slash));
+        final int length;
+        try {
+            length = Integer.parseInt(address.substring(slash + 1));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid CIDR block " + address);
+        }
+        if (base < 0 || length < 0 || length > 32)
+            throw new IllegalArgumentException("Invalid CIDR block " + address);
+        final long size = 1L << (32 - length);
+        final long first = base & ~(size - 1);
+        final long last = first + size - 1;
+
+        int i = Arrays.binarySearch(ips, first);
+        if (i < 0) {
+            i = -i - 1;
+        } else {
+            // Several instances may share the first address
+            while (i > 0 && ips[i - 1] == first)
+                i--;
+        }
+        final List<EC2Instance> result = new ArrayList<>();
+        final Set<EC2Instance> seen = Sets.newIdentityHashSet();
+        for (; i < ips.length && ips[i] <= last; i++) {
+            if (seen.add(owners[i]))
+                result.add(owners[i]);
+        }
+        return result;
+    }
+
+    /**
+     * @return the address as an unsigned 32-bit value, or -1 if it is not a dotted IPv4 address
+     */
+    static long parseIPv4(String address) {
+        final String[] octets = address.split("\\.", -1);
+        if (octets.length != 4)
+            return -1;
+        long parsed = 0;
+        for (String octet : octets) {
+            if (octet.isEmpty() || octet.length() > 3)
+                return -1;
+            int value = 0;
+            for (int i = 0; i < octet.length(); i++) {
+                final char c = octet.charAt(i);
+                if (c < '0' || c > '9')
+                    return -1;
+                value = value * 10 + (c - '0');
+            }
+            if (value > 255)
+                return -1;
+            parsed = (parsed << 8) | value;
+        }
+        return parsed;
+    }
+}
@@ -0,0 +1,16 @@
+package com.airbnb.billow;
+
+import lombok.Data;
+
+/**
+ * Something happened to one resource. Billow describes it again, and drops it if it is gone.
+ */
+@Data
+public class ChangeEvent {
+    private final AWSService service;
+    private final String region;
+    /**
+     * Instance or security group id, DB instance identifier, table name or queue URL.
+     */
+    private final String resourceId;
+}
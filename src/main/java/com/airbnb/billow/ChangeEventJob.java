@@ -0,0 +1,62 @@
+package com.airbnb.billow;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import com.codahale.metrics.Counter;
+import org.quartz.DisallowConcurrentExecution;
+import org.quartz.Job;
+import org.quartz.JobExecutionContext;
+import org.quartz.JobExecutionException;
+import org.quartz.SchedulerContext;
+
+/**
+ * Drains a {@link ChangeEventSource} into the current database.
+ */
+@Slf4j
+@DisallowConcurrentExecution
+public class ChangeEventJob implements Job {
+    public static final String SOURCE_KEY          = "events_source";
+    public static final String APPLIED_COUNTER_KEY = "events_applied_counter";
+    public static final String FAILURE_COUNTER_KEY = "events_failure_counter";
+    public static final String NAME                = "changeEvents";
+
+    @Override
+    public void execute(JobExecutionContext context) throws JobExecutionException {
+        try {
+            final SchedulerContext schedulerContext = context.getScheduler().getContext();
+            final AWSDatabaseHolder dbHolder = (AWSDatabaseHolder) schedulerContext.get(AWSDatabaseHolderRefreshJob.DB_KEY);
+            final ChangeEventSource source = (ChangeEventSource) schedulerContext.get(SOURCE_KEY);
+
+            // Many notifications about the same resource only need one describe
+            final Set<ChangeEvent> events = new LinkedHashSet<>();
+            for (String notification : source.poll()) {
+                try {
+                    events.addAll(ChangeEventParser.parse(notification));
+                } catch (Exception e) {
+                    log.warn("Ignoring unparseable notification {}", notification, e);
+                }
+            }
+
+            // Events that failed to be described are skipped, redelivering the batch would not help them
+            final int skipped = dbHolder.apply(events);
+            source.commit();
+            ((Counter) schedulerContext.get(APPLIED_COUNTER_KEY)).inc(events.size() - skipped);
+            if (skipped > 0)
+                increment(context, skipped);
+        } catch (Exception e) {
+            increment(context, 1);
+            throw new JobExecutionException(e);
+        }
+    }
+
+    private void increment(JobExecutionContext context, long failures) {
+        try {
+            ((Counter) context.getScheduler().getContext().get(FAILURE_COUNTER_KEY)).inc(failures);
+        } catch (Exception e) {
+            // do nothing, don't throw an error for metrics
+        }
+    }
+}
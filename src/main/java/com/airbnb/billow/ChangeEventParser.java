@@ -0,0 +1,159 @@
+package com.airbnb.billow;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * Turns notifications into {@link ChangeEvent}s. Understands:
+ * <ul>
+ * <li>EventBridge/CloudWatch events: EC2 instance state changes, RDS DB instance events,
+ * and CloudTrail API calls;</li>
+ * <li>CloudTrail records, alone or in a log file ({@code Records});</li>
+ * <li>any of the above wrapped in an SNS notification.</li>
+ * </ul>
+ * Anything else yields no event.
+ */
+@Slf4j
+public class ChangeEventParser {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private static final Set<String> DYNAMODB_EVENTS = ImmutableSet.of(
+        "CreateTable", "DeleteTable", "UpdateTable", "TagResource", "UntagResource", "RestoreTableFromBackup",
+        "RestoreTableToPointInTime");
+    private static final Set<String> SQS_EVENTS = ImmutableSet.of(
+        "CreateQueue", "DeleteQueue", "SetQueueAttributes", "TagQueue", "UntagQueue");
+
+    private ChangeEventParser() {
+    }
+
+    public static Set<ChangeEvent> parse(String document) throws IOException {
+        final Set<ChangeEvent> events = new LinkedHashSet<>();
+        parse(MAPPER.readTree(document), events);
+        return events;
+    }
+
+    private static void parse(JsonNode node, Set<ChangeEvent> events) throws IOException {
+        if ("Notification".equals(node.path("Type").asText()) && node.path("Message").isTextual()) {
+            parse(MAPPER.readTree(node.get("Message").asText()), events);
+        } else if (node.path("Records").isArray()) {
+            for (JsonNode record : node.get("Records"))
+                parseCloudTrail(record, events);
+        } else if (node.has("detail-type")) {
+            parseEventBridge(node, events);
+        } else if (node.has("eventSource")) {
+            parseCloudTrail(node, events);
+        } else {
+            log.debug("Ignoring unknown notification {}", node);
+        }
+    }
+
+    private static void parseEventBridge(JsonNode event, Set<ChangeEvent> events) {
+        final String detailType = event.path("detail-type").asText();
+        final String region = event.path("region").asText();
+        final JsonNode detail = event.path("detail");
+
+        if ("AWS API Call via CloudTrail".equals(detailType)) {
+            parseCloudTrail(detail, events);
+        } else if ("EC2 Instance State-change Notification".equals(detailType)) {
+            add(events, AWSService.EC2_INSTANCES, region, detail.path("instance-id").asText());
+        } else if ("RDS DB Instance Event".equals(detailType)) {
+            add(events, AWSService.RDS, region, detail.path("SourceIdentifier").asText());
+        } else {
+            log.debug("Ignoring {} event", detailType);
+        }
+    }
+
+    private static void parseCloudTrail(JsonNode record, Set<ChangeEvent> events) {
+        // Failed calls did not change anything
+        if (record.hasNonNull("errorCode"))
+            return;
+
+        final String eventSource = record.path("eventSource").asText();
+        final String eventName = record.path("eventName").asText();
+        final String region = record.path("awsRegion").asText();
+        final JsonNode request = record.path("requestParameters");
+        final JsonNode response = record.path("responseElements");
+
+        switch (eventSource) {
+            case "ec2.amazonaws.com":
+                for (String id : findAll(request, response, "instanceId"))
+                    add(events, AWSService.EC2_INSTANCES, region, id);
+                for (String id : findAll(request, response, "resourceId")) {
+                    // CreateTags and DeleteTags
+                    if (id.startsWith("i-"))
+                        add(events, AWSService.EC2_INSTANCES, region, id);
+                    else if (id.startsWith("sg-"))
+                        add(events, AWSService.EC2_SECURITY_GROUPS, region, id);
+                }
+                // Instances merely reference their groups, only look at calls about the groups themselves
+                if (eventName.contains("SecurityGroup")) {
+                    for (String id : findAll(request, response, "groupId"))
+                        add(events, AWSService.EC2_SECURITY_GROUPS, region, id);
+                }
+                break;
+            case "rds.amazonaws.com":
+                for (String id : findAll(request, response, "dBInstanceIdentifier"))
+                    add(events, AWSService.RDS, region, id);
+                for (String id : findAll(request, response, "newDBInstanceIdentifier"))
+                    add(events, AWSService.RDS, region, id);
+                break;
+            case "dynamodb.amazonaws.com":
+                if (!DYNAMODB_EVENTS.contains(eventName))
+                    break;
+                for (String name : findAll(request, response, "tableName"))
+                    add(events, AWSService.DYNAMODB, region, name);
+                for (String arn : findAll(request, response, "resourceArn")) {
+                    final int table = arn.indexOf(":table/");
+                    if (table >= 0)
+                        add(events, AWSService.DYNAMODB, region, arn.substring(table + ":table/".length()));
+                }
+                break;
+            case "sqs.amazonaws.com":
+                if (!SQS_EVENTS.contains(eventName))
+                    break;
+                for (String url : findAll(request, response, "queueUrl"))
+                    add(events, AWSService.SQS, region, url);
+                break;
+            default:
+                log.debug("Ignoring {} call to {}", eventName, eventSource);
+        }
+    }
+
+    private static Set<String> findAll(JsonNode request, JsonNode response, String field) {
+        final Set<String> values = new LinkedHashSet<>();
+        findAll(request, field, values);
+        findAll(response, field, values);
+        return values;
+    }
+
+    private static void findAll(JsonNode node, String field, Set<String> values) {
+        if (node.isObject()) {
+            final Iterator<Map.Entry<String, JsonNode>> fields = node.fields();
+            while (fields.hasNext()) {
+                final Map.Entry<String, JsonNode> entry = fields.next();
+                if (entry.getKey().equals(field) && entry.getValue().isTextual())
+                    values.add(entry.getValue().asText());
+                else
+                    findAll(entry.getValue(), field, values);
+            }
+        } else if (node.isArray()) {
+            for (JsonNode element : node)
+                findAll(element, field, values);
+        }
+    }
+
+    private static void add(Set<ChangeEvent> events, AWSService service, String region, String resourceId) {
+        if (region.isEmpty() || resourceId.isEmpty())
+            return;
+        events.add(new ChangeEvent(service, region, resourceId));
+    }
+}
@@ -0,0 +1,21 @@
+package com.airbnb.billow;
+
+import java.util.List;
+
+/**
+ * Where change notifications come from. Notifications are only acknowledged once applied,
+ * so whatever was polled before a failure is delivered again.
+ */
+public interface ChangeEventSource {
+    /**
+     * @return the notifications received since the last commit, possibly none
+     */
+    List<String> poll() throws Exception;
+
+    /**
+     * Acknowledges everything returned by the previous poll.
+     */
+    void commit() throws Exception;
+
+    void close();
+}
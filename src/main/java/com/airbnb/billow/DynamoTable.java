@@ -1,7 +1,8 @@
 package com.airbnb.billow;
 
 import com.amazonaws.services.dynamodbv2.model.GlobalSecondaryIndexDescription;
-import com.amazonaws.services.dynamodbv2.model.Tag;
+import com.amazonaws.services.dynamodbv2.model.TableDescription;
+import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -9,13 +10,11 @@ import java.util.Map;
 
 import lombok.Getter;
 
-import com.amazonaws.services.dynamodbv2.AmazonDynamoDBClient;
-import com.amazonaws.services.dynamodbv2.document.Table;
 import com.fasterxml.jackson.annotation.JsonFilter;
 import org.joda.time.DateTime;
 
 @JsonFilter(DynamoTable.TABLE_FILTER)
-public class DynamoTable {
+public class DynamoTable implements Serializable, Fingerprinted {
     public static final String TABLE_FILTER = "TableFilter";
 
     @Getter
@@ -46,44 +45,44 @@ public class DynamoTable {
     private final List<DynamoGSI> globalSecondaryIndexes;
     @Getter
     private final Map<String, String> tags;
+    private final long fingerprint;
 
-    public DynamoTable(Table table, AmazonDynamoDBClient client) {
-        table.describe();
-        tableName = table.getTableName();
-        attributeDefinitions = table.getDescription().getAttributeDefinitions().toString();
-        tableStatus = table.getDescription().getTableStatus();
-        keySchema = table.getDescription().getKeySchema().toString();
-        creationDateTime = new DateTime(table.getDescription().getCreationDateTime());
-        numberOfDecreasesToday = table.getDescription().getProvisionedThroughput().getNumberOfDecreasesToday();
-        readCapacityUnits = table.getDescription().getProvisionedThroughput().getReadCapacityUnits();
-        writeCapacityUnits = table.getDescription().getProvisionedThroughput().getWriteCapacityUnits();
-        tableSizeBytes = table.getDescription().getTableSizeBytes();
-        itemCount = table.getDescription().getItemCount();
-        tableArn = table.getDescription().getTableArn();
-        provisionedThroughput = table.getDescription().getProvisionedThroughput().toString();
+    public DynamoTable(TableDescription description, Map<String, String> tags, long fingerprint) {
+        this.fingerprint = fingerprint;
+        tableName = description.getTableName();
+        attributeDefinitions = description.getAttributeDefinitions().toString();
+        tableStatus = description.getTableStatus();
+        keySchema = description.getKeySchema().toString();
+        creationDateTime = new DateTime(description.getCreationDateTime());
+        numberOfDecreasesToday = description.getProvisionedThroughput().getNumberOfDecreasesToday();
+        readCapacityUnits = description.getProvisionedThroughput().getReadCapacityUnits();
+        writeCapacityUnits = description.getProvisionedThroughput().getWriteCapacityUnits();
+        tableSizeBytes = description.getTableSizeBytes();
+        itemCount = description.getItemCount();
+        tableArn = description.getTableArn();
+        provisionedThroughput = description.getProvisionedThroughput().toString();
         globalSecondaryIndexes = new ArrayList<>();
 
-        com.amazonaws.services.dynamodbv2.model.ListTagsOfResourceRequest tagsRequest =
-                new com.amazonaws.services.dynamodbv2.model.ListTagsOfResourceRequest().withResourceArn(
-                        table.getDescription().getTableArn());
-        com.amazonaws.services.dynamodbv2.model.ListTagsOfResourceResult tagsResult =
-                client.listTagsOfResource(tagsRequest);
+        this.tags = new HashMap<>(tags);
 
-        this.tags = new HashMap<>(tagsResult.getTags().size());
-        for(Tag tag : tagsResult.getTags()) {
-          this.tags.put(tag.getKey(), tag.getValue());
-        }
-
-        if (table.getDescription().getGlobalSecondaryIndexes() != null) {
-            for (GlobalSecondaryIndexDescription gsiDesc : table
-                .getDescription()
-                .getGlobalSecondaryIndexes()) {
+        if (description.getGlobalSecondaryIndexes() != null) {
+            for (GlobalSecondaryIndexDescription gsiDesc : description.getGlobalSecondaryIndexes()) {
                 globalSecondaryIndexes.add(new DynamoGSI(gsiDesc));
             }
         }
     }
 
-    private static final class DynamoGSI {
+    @Override
+    public String resourceId() {
+        return tableName;
+    }
+
+    @Override
+    public long fingerprint() {
+        return fingerprint;
+    }
+
+    private static final class DynamoGSI implements Serializable {
         @Getter
         private final String gsiName;
         @Getter
@@ -2,6 +2,7 @@ package com.airbnb.billow;
 
 import lombok.Getter;
 
+import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -16,7 +17,7 @@ import org.joda.time.DateTime;
 import org.joda.time.Interval;
 
 @JsonFilter(EC2Instance.INSTANCE_FILTER)
-public class EC2Instance {
+public class EC2Instance implements Serializable, Fingerprinted {
     public static final String INSTANCE_FILTER = "InstanceFilter";
 
     @Getter
@@ -81,8 +82,10 @@ public class EC2Instance {
     private final List<SecurityGroup> securityGroups;
     @Getter
     private final String iamInstanceProfile;
+    private final long fingerprint;
 
-    public EC2Instance(Instance instance) {
+    public EC2Instance(Instance instance, long fingerprint) {
+        this.fingerprint = fingerprint;
         this.id = instance.getInstanceId();
         this.type = instance.getInstanceType();
         this.lifecycle = instance.getInstanceLifecycle();
@@ -134,11 +137,63 @@ public class EC2Instance {
         }
     }
 
+    private EC2Instance(EC2Instance source, String state) {
+        this.fingerprint = NO_FINGERPRINT;
+        this.id = source.id;
+        this.type = source.type;
+        this.lifecycle = source.lifecycle;
+        this.hypervisor = source.hypervisor;
+        this.az = source.az;
+        this.group = source.group;
+        this.tenancy = source.tenancy;
+        this.platform = source.platform;
+        this.kernel = source.kernel;
+        this.key = source.key;
+        this.image = source.image;
+        this.privateIP = source.privateIP;
+        this.publicIP = source.publicIP;
+        this.publicHostname = source.publicHostname;
+        this.privateHostname = source.privateHostname;
+        this.architecture = source.architecture;
+        this.state = state;
+        this.ramdisk = source.ramdisk;
+        this.subnet = source.subnet;
+        this.rootDeviceName = source.rootDeviceName;
+        this.rootDeviceType = source.rootDeviceType;
+        this.stateTransitionReason = source.stateTransitionReason;
+        this.spotInstanceRequest = source.spotInstanceRequest;
+        this.virtualizationType = source.virtualizationType;
+        this.sourceDestCheck = source.sourceDestCheck;
+        this.stateReason = source.stateReason;
+        this.vpc = source.vpc;
+        this.tags = source.tags;
+        this.launchTime = source.launchTime;
+        this.securityGroups = source.securityGroups;
+        this.iamInstanceProfile = source.iamInstanceProfile;
+    }
+
+    /**
+     * @return a copy with the state found by a status check
+     */
+    EC2Instance withState(String state) {
+        return new EC2Instance(this, state);
+    }
+
+    @Override
+    public String resourceId() {
+        return id;
+    }
+
+    @Override
+    public long fingerprint() {
+        return fingerprint;
+    }
+
     public float getDaysOld() {
         return new Interval(this.launchTime, new DateTime()).toDurationMillis() / (1000.0f * 60.0f * 60.0f * 24.0f);
     }
 
-    private static final class SecurityGroup {
+    private static final class SecurityGroup implements Serializable {
         @Getter
         private final String id;
         @Getter
@@ -4,20 +4,19 @@ import com.amazonaws.services.elasticache.model.Endpoint;
 import com.amazonaws.services.elasticache.model.NodeGroupMember;
 import lombok.Getter;
 
+import java.io.Serializable;
 import java.util.Date;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 
 import com.amazonaws.services.elasticache.model.CacheCluster;
-import com.amazonaws.services.elasticache.model.Tag;
 import com.fasterxml.jackson.annotation.JsonFilter;
 
 /**
  * Created by tong_wei on 3/15/16.
  */
 @JsonFilter(ElasticacheCluster.CACHE_CLUSTER_FILTER)
-public class ElasticacheCluster {
+public class ElasticacheCluster implements Serializable, Fingerprinted {
     public static final String CACHE_CLUSTER_FILTER = "CacheClusterFilter";
 
     @Getter
@@ -68,9 +67,10 @@ public class ElasticacheCluster {
     private final String currentRole;
     @Getter
     private final Map<String, String> tags;
+    private final long fingerprint;
 
-
-    public ElasticacheCluster(CacheCluster cacheCluster, NodeGroupMember nodeGroupMember, List<Tag> tagList) {
+    public ElasticacheCluster(CacheCluster cacheCluster, NodeGroupMember nodeGroupMember, Map<String, String> tags, long fingerprint) {
+        this.fingerprint = fingerprint;
         this.cacheClusterId = cacheCluster.getCacheClusterId();
         if (cacheCluster.getConfigurationEndpoint() != null) {
             this.configurationEndpoint = cacheCluster.getConfigurationEndpoint().toString();
@@ -106,9 +106,16 @@ public class ElasticacheCluster {
             this.endpoint = cacheCluster.getConfigurationEndpoint();
             this.currentRole = null;
         }
-        this.tags = new HashMap<>(tagList.size());
-        for(Tag tag : tagList) {
-            this.tags.put(tag.getKey(), tag.getValue());
-        }
+        this.tags = new HashMap<>(tags);
+    }
+
+    @Override
+    public String resourceId() {
+        return cacheClusterId;
+    }
+
+    @Override
+    public long fingerprint() {
+        return fingerprint;
     }
 }
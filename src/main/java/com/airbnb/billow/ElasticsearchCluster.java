@@ -2,14 +2,13 @@ package com.airbnb.billow;
 
 import com.amazonaws.services.elasticsearch.model.ElasticsearchClusterConfig;
 import com.amazonaws.services.elasticsearch.model.ElasticsearchDomainStatus;
-import com.amazonaws.services.elasticsearch.model.Tag;
 import lombok.Getter;
 
+import java.io.Serializable;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 
-public class ElasticsearchCluster {
+public class ElasticsearchCluster implements Serializable, Fingerprinted {
   @Getter
   private final String domainName;
   @Getter
@@ -30,13 +29,12 @@ public class ElasticsearchCluster {
   private final String dedicatedMasterType;
   @Getter
   private final int dedicatedMasterCount;
+  private final long fingerprint;
 
-  public ElasticsearchCluster(ElasticsearchDomainStatus domainStatus, List<Tag> tagList) {
+  public ElasticsearchCluster(ElasticsearchDomainStatus domainStatus, Map<String, String> tags, long fingerprint) {
+    this.fingerprint = fingerprint;
     this.domainName = domainStatus.getDomainName();
-    this.tags = new HashMap<>(tagList.size());
-    for(Tag tag : tagList) {
-      this.tags.put(tag.getKey(), tag.getValue());
-    }
+    this.tags = new HashMap<>(tags);
     this.version = domainStatus.getElasticsearchVersion();
     this.endpoints = domainStatus.getEndpoints();
 
@@ -53,4 +51,14 @@ public class ElasticsearchCluster {
       this.dedicatedMasterType = "";
     }
   }
+
+  @Override
+  public String resourceId() {
+    return domainName;
+  }
+
+  @Override
+  public long fingerprint() {
+    return fingerprint;
+  }
 }
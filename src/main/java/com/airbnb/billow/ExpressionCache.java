@@ -0,0 +1,112 @@
+package com.airbnb.billow;
+
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.typesafe.config.Config;
+import ognl.Node;
+import ognl.Ognl;
+import ognl.OgnlContext;
+import ognl.OgnlException;
+import ognl.OgnlRuntime;
+import ognl.enhance.ExpressionAccessor;
+
+/**
+ * Parsed query and sort expressions, most recently used first, keyed by their text and the class they apply to.
+ * <p>
+ * Expressions are also compiled to bytecode for their class when OGNL manages to. Compiled expressions
+ * don't always behave, so an element they fail on is evaluated again by the interpreter.
+ * Hits, misses and interpreter fallbacks are reported as {@code billow.query.expressions.{hit,miss,fallback}}.
+ */
+@Slf4j
+class ExpressionCache {
+    private final Cache<Key, Expression> cache;
+    private final boolean compile;
+    private final Meter hits;
+    private final Meter misses;
+    private final Meter fallbacks;
+
+    ExpressionCache(Config config, MetricRegistry registry) {
+        this.cache = CacheBuilder.newBuilder().maximumSize(config.getLong("expressionCacheSize")).build();
+        this.compile = config.getBoolean("compileExpressions");
+        this.hits = registry.meter(MetricRegistry.name("billow", "query", "expressions", "hit"));
+        this.misses = registry.meter(MetricRegistry.name("billow", "query", "expressions", "miss"));
+        this.fallbacks = registry.meter(MetricRegistry.name("billow", "query", "expressions", "fallback"));
+    }
+
+    /**
+     * @param sample an element the expression is about to be evaluated on, compiled expressions are tied to its class
+     * @throws OgnlException if the expression does not parse
+     */
+    Expression get(String expression, Object sample) throws OgnlException {
+        final Key key = new Key(expression, sample.getClass());
+        Expression cached = cache.getIfPresent(key);
+        if (cached != null) {
+            hits.mark();
+            return cached;
+        }
+        misses.mark();
+        // Racing misses parse twice, the last one stays
+        cached = new Expression(expression, (Node) Ognl.parseExpression(expression), compile(expression, sample));
+        cache.put(key, cached);
+        return cached;
+    }
+
+    private ExpressionAccessor compile(String expression, Object sample) {
+        if (!compile)
+            return null;
+        try {
+            final OgnlContext context = (OgnlContext) Ognl.createDefaultContext(sample);
+            // Compiling attaches the accessor to the tree, keep the interpreted tree apart
+            final Node compiled = (Node) Ognl.parseExpression(expression);
+            OgnlRuntime.compileExpression(context, compiled, sample);
+            return compiled.getAccessor();
+        } catch (Exception | LinkageError e) {
+            log.debug("Interpreting {} on {}, it does not compile", expression, sample.getClass().getSimpleName(), e);
+            return null;
+        }
+    }
+
+    @Data
+    private static final class Key {
+        private final String expression;
+        private final Class<?> rootClass;
+    }
+
+    /**
+     * Evaluated with one context per thread, see {@link #newContext()}.
+     */
+    final class Expression {
+        private final String text;
+        private final Node tree;
+        private final ExpressionAccessor accessor;
+
+        private Expression(String text, Node tree, ExpressionAccessor accessor) {
+            this.text = text;
+            this.tree = tree;
+            this.accessor = accessor;
+        }
+
+        OgnlContext newContext() {
+            return (OgnlContext) Ognl.createDefaultContext(null);
+        }
+
+        Object getValue(OgnlContext context, Object root) throws OgnlException {
+            if (accessor != null) {
+                context.setRoot(root);
+                context.setCurrentObject(root);
+                try {
+                    return accessor.get(context, root);
+                } catch (RuntimeException e) {
+                    fallbacks.mark();
+                    log.debug("Compiled {} failed, interpreting it", text, e);
+                }
+            }
+            return Ognl.getValue(tree, context, root);
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package com.airbnb.billow;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Follows a local file holding one notification per line, for testing and replays.
+ * Starts from the beginning of the file; a partial last line is left for the next poll.
+ */
+public class FileChangeEventSource implements ChangeEventSource {
+    private static final int MAX_BYTES_PER_POLL = 1 << 20;
+
+    private final File file;
+    private long committed = 0;
+    private long polled = 0;
+
+    public FileChangeEventSource(File file) {
+        this.file = file;
+    }
+
+    @Override
+    public List<String> poll() throws IOException {
+        final List<String> lines = new ArrayList<>();
+        polled = committed;
+        if (!file.isFile())
+            return lines;
+
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            if (in.length() < committed) {
+                // Truncated or replaced, start over
+                committed = 0;
+                polled = 0;
+            }
+            in.seek(committed);
+            final byte[] rest = new byte[(int) Math.min(in.length() - committed, MAX_BYTES_PER_POLL)];
+            in.readFully(rest);
+
+            int start = 0;
+            for (int i = 0; i < rest.length; i++) {
+                if (rest[i] != '\n')
+                    continue;
+                final String line = new String(rest, start, i - start, StandardCharsets.UTF_8).trim();
+                if (!line.isEmpty())
+                    lines.add(line);
+                start = i + 1;
+            }
+            polled = committed + start;
+        }
+        return lines;
+    }
+
+    @Override
+    public void commit() {
+        committed = polled;
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,22 @@
+package com.airbnb.billow;
+
+/**
+ * A crawled resource that remembers a digest of the AWS records it was built from,
+ * so the next crawl can keep this very instance when they did not change.
+ */
+interface Fingerprinted {
+    /**
+     * Fingerprint of a resource whose records were patched after the crawl, never matches a fresh crawl.
+     */
+    long NO_FINGERPRINT = 0;
+
+    /**
+     * @return what identifies the resource within its region
+     */
+    String resourceId();
+
+    /**
+     * @return the digest of the records the resource was built from, see {@link ResourceReuse#fingerprint}
+     */
+    long fingerprint();
+}
@@ -2,14 +2,21 @@ package com.airbnb.billow;
 
 import lombok.extern.slf4j.Slf4j;
 
+import java.io.BufferedReader;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import javax.servlet.ServletOutputStream;
 import javax.servlet.http.HttpServletRequest;
@@ -26,12 +33,20 @@ import com.fasterxml.jackson.databind.ser.impl.SimpleBeanPropertyFilter;
 import com.fasterxml.jackson.databind.ser.impl.SimpleFilterProvider;
 import com.fasterxml.jackson.datatype.guava.GuavaModule;
 import com.fasterxml.jackson.datatype.joda.JodaModule;
+import com.google.common.base.Joiner;
+import com.google.common.base.Predicates;
 import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableMultimap;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Multimaps;
 import com.google.common.collect.Sets;
 import com.google.common.net.HttpHeaders;
+import com.typesafe.config.Config;
 import ognl.Ognl;
+import ognl.OgnlContext;
 import ognl.OgnlException;
 import org.apache.http.entity.ContentType;
 import org.eclipse.jetty.server.Request;
@@ -47,10 +62,39 @@ public class Handler extends AbstractHandler {
         .addFilter(SQSQueue.QUEUE_FILTER, SimpleBeanPropertyFilter.serializeAllExcept());
     public static final SimpleFilterProvider NOOP_CACHE_CLUSTER_FILTER = new SimpleFilterProvider()
         .addFilter(ElasticacheCluster.CACHE_CLUSTER_FILTER, SimpleBeanPropertyFilter.serializeAllExcept());
+    private static final ImmutableMap<String, AWSService> TARGET_SERVICES = ImmutableMap.<String, AWSService>builder()
+        .put("/ec2", AWSService.EC2_INSTANCES)
+        .put("/ec2/all", AWSService.EC2_INSTANCES)
+        .put("/ec2/sg", AWSService.EC2_SECURITY_GROUPS)
+        .put("/ec2/lookup", AWSService.EC2_INSTANCES)
+        .put("/rds", AWSService.RDS)
+        .put("/rds/all", AWSService.RDS)
+        .put("/elasticsearch", AWSService.ELASTICSEARCH)
+        .put("/iam", AWSService.IAM)
+        .put("/iam/users", AWSService.IAM)
+        .put("/dynamo", AWSService.DYNAMODB)
+        .put("/sqs", AWSService.SQS)
+        .put("/elasticache/cluster", AWSService.ELASTICACHE)
+        .build();
+    // Followed by an id, more specific prefixes first
+    private static final ImmutableMap<String, AWSService> ID_PREFIXES = ImmutableMap.<String, AWSService>builder()
+        .put("/ec2/sg/", AWSService.EC2_SECURITY_GROUPS)
+        .put("/ec2/", AWSService.EC2_INSTANCES)
+        .put("/rds/", AWSService.RDS)
+        .put("/dynamo/", AWSService.DYNAMODB)
+        .put("/sqs/", AWSService.SQS)
+        .put("/elasticache/cluster/", AWSService.ELASTICACHE)
+        .put("/elasticsearch/", AWSService.ELASTICSEARCH)
+        .build();
+    private static final int NOT_READY_RETRY_AFTER_SECONDS = 30;
+    private static final String STALE_REGIONS_HEADER = "X-Billow-Stale-Regions";
+    private static final Joiner JOINER = Joiner.on(",");
     private final ObjectMapper mapper;
     private final MetricRegistry registry;
     private final AWSDatabaseHolder dbHolder;
     private final long maxDBAgeInMs;
+    private final ExpressionCache expressions;
+    private final ResponseCache responses;
 
     public static abstract class DBInstanceMixin extends DBInstance {
         @JsonIgnore
@@ -78,7 +122,7 @@ public class Handler extends AbstractHandler {
         public abstract Boolean isNormal();
     }
 
-    public Handler(MetricRegistry registry, AWSDatabaseHolder dbHolder, long maxDBAgeInMs) {
+    public Handler(MetricRegistry registry, AWSDatabaseHolder dbHolder, long maxDBAgeInMs, Config queryConfig) {
         this.mapper = new ObjectMapper();
         this.mapper.addMixInAnnotations(DBInstance.class, DBInstanceMixin.class);
         this.mapper.addMixInAnnotations(PendingModifiedValues.class, PendingModifiedValuesMixin.class);
@@ -88,69 +132,136 @@ public class Handler extends AbstractHandler {
         this.registry = registry;
         this.dbHolder = dbHolder;
         this.maxDBAgeInMs = maxDBAgeInMs;
+        this.expressions = new ExpressionCache(queryConfig, registry);
+        final Config responseCacheConfig = queryConfig.getConfig("responseCache");
+        this.responses = responseCacheConfig.getBoolean("enabled")
+            ? new ResponseCache(responseCacheConfig, registry, dbHolder) : null;
     }
 
     @Override
-    public void handle(String target,
+    public void handle(final String target,
                        Request baseRequest,
-                       HttpServletRequest request,
+                       final HttpServletRequest request,
                        HttpServletResponse response) {
         try {
             final Map<String, String[]> paramMap = request.getParameterMap();
 
             final AWSDatabase current = dbHolder.getCurrent();
+            if (current == null) {
+                // Still waiting for the initial crawl
+                response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+                response.setHeader("Retry-After", String.valueOf(NOT_READY_RETRY_AFTER_SECONDS));
+                response.setHeader("Cache-Control", "no-store");
+                return;
+            }
 
-            final long age = current.getAgeInMs();
+            // Each endpoint is as old as the collection behind it
+            AWSService service = TARGET_SERVICES.get(target);
+            String id = null;
+            if (service == null) {
+                for (Map.Entry<String, AWSService> prefix : ID_PREFIXES.entrySet()) {
+                    if (target.startsWith(prefix.getKey()) && target.length() > prefix.getKey().length()) {
+                        service = prefix.getValue();
+                        id = target.substring(prefix.getKey().length());
+                        break;
+                    }
+                }
+            }
+            final long age = service == null ? current.getAgeInMs() : current.getAgeInMs(service);
+            final long cacheTime = service == null ? dbHolder.getCacheTimeInMs() : dbHolder.getCacheTimeInMs(service);
             final float ageInSeconds = (float) age / 1000.0f;
             response.setHeader("Age", String.format("%.3f", ageInSeconds));
-            response.setHeader("Cache-Control", String.format("public, max-age=%d", dbHolder.getCacheTimeInMs() / 1000));
-
-            switch (target) {
-                case "/ec2":
-                    handleComplexEC2(response, paramMap, current);
-                    break;
-                case "/rds":
-                    handleComplexRDS(response, paramMap, current);
-                    break;
-                case "/ec2/all":
-                    handleSimpleRequest(response, current.getEc2Instances());
-                    break;
-                case "/rds/all":
-                    handleSimpleRequest(response, current.getRdsInstances());
-                    break;
-                case "/ec2/sg":
-                    handleSimpleRequest(response, current.getEc2SGs());
-                    break;
-                case "/elasticsearch":
-                    handleSimpleRequest(response, current.getElasticsearchClusters());
-                    break;
-                case "/iam": // backwards compatibility with documented feature
-                    final ArrayList<AccessKeyMetadata> justKeys = Lists.<AccessKeyMetadata>newArrayList();
-                    for (IAMUserWithKeys userWithKeys : current.getIamUsers())
-                        justKeys.addAll(userWithKeys.getKeys());
-                    handleSimpleRequest(response, justKeys);
-                    break;
-                case "/iam/users":
-                    handleSimpleRequest(response, current.getIamUsers());
-                    break;
-                case "/dynamo":
-                    handleComplexDynamo(response, paramMap, current);
-                    break;
-                case "/sqs":
-                    handleComplexSQS(response, paramMap, current);
-                    break;
-                case "/elasticache/cluster":
-                    handleComplexElasticacheCluster(response, paramMap, current);
-                    break;
-                default:
-                    response.setStatus(HttpServletResponse.SC_NOT_FOUND);
-                    break;
+            response.setHeader("Cache-Control", String.format("public, max-age=%d", cacheTime / 1000));
+            if (service != null && !current.getStaleRegions(service).isEmpty()) {
+                // Regions that failed the last crawl and are served from an older one
+                final List<String> staleRegions = new ArrayList<>();
+                for (Map.Entry<String, Long> stale : current.getStaleRegions(service).entrySet())
+                    staleRegions.add(stale.getKey() + "=" + (System.currentTimeMillis() - stale.getValue()) / 1000);
+                response.setHeader(STALE_REGIONS_HEADER, JOINER.join(staleRegions));
             }
+
+            final AWSService finalService = service;
+            final String finalId = id;
+            final ResponseCache.Computation computation = new ResponseCache.Computation() {
+                @Override
+                public void run(HttpServletResponse response) throws IOException {
+                    dispatch(target, request, response, paramMap, current, finalService, finalId);
+                }
+            };
+            if (responses == null)
+                computation.run(response);
+            else
+                responses.serve(target, request, response, current, computation);
+        } catch (IOException e) {
+            response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            log.error("I/O error handling {}", target, e);
         } finally {
             baseRequest.setHandled(true);
         }
     }
 
+    private void dispatch(String target,
+                          HttpServletRequest request,
+                          HttpServletResponse response,
+                          Map<String, String[]> paramMap,
+                          AWSDatabase current,
+                          AWSService service,
+                          String id) {
+        switch (target) {
+            case "/ec2":
+                handleComplexEC2(response, paramMap, current);
+                break;
+            case "/rds":
+                handleComplexRDS(response, paramMap, current);
+                break;
+            case "/ec2/all":
+                handleSimpleRequest(response, current.getEc2Instances());
+                break;
+            case "/rds/all":
+                handleSimpleRequest(response, current.getRdsInstances());
+                break;
+            case "/ec2/sg":
+                handleSimpleRequest(response, current.getEc2SGs());
+                break;
+            case "/ec2/lookup":
+                handleEC2Lookup(request, response, paramMap, current);
+                break;
+            case "/elasticsearch":
+                handleElasticsearch(response, paramMap, current);
+                break;
+            case "/iam": // backwards compatibility with documented feature
+                final ArrayList<AccessKeyMetadata> justKeys = Lists.<AccessKeyMetadata>newArrayList();
+                for (IAMUserWithKeys userWithKeys : current.getIamUsers())
+                    justKeys.addAll(userWithKeys.getKeys());
+                handleSimpleRequest(response, justKeys);
+                break;
+            case "/iam/users":
+                handleSimpleRequest(response, current.getIamUsers());
+                break;
+            case "/dynamo":
+                handleComplexDynamo(response, paramMap, current);
+                break;
+            case "/sqs":
+                handleComplexSQS(response, paramMap, current);
+                break;
+            case "/elasticache/cluster":
+                handleComplexElasticacheCluster(response, paramMap, current);
+                break;
+            case "/tags":
+                handleTags(response, paramMap, current);
+                break;
+            case "/ids":
+                handleIds(request, response, paramMap, current);
+                break;
+            default:
+                if (id != null)
+                    handleId(response, service, id, current);
+                else
+                    response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+                break;
+        }
+    }
+
     private void handleSimpleRequest(HttpServletResponse response, Object o) {
         try {
             response.setHeader(HttpHeaders.CONTENT_TYPE, ContentType.APPLICATION_JSON.getMimeType());
@@ -161,10 +272,169 @@ public class Handler extends AbstractHandler {
         }
     }
 
+    private void handleElasticsearch(HttpServletResponse response,
+                                     Map<String, String[]> params,
+                                     AWSDatabase db) {
+        final String predicate = getPredicate(params);
+        if (predicate == null) {
+            handleSimpleRequest(response, db.getElasticsearchClusters());
+            return;
+        }
+        try {
+            // Same shape as without a predicate, grouped by region
+            final Set<ElasticsearchCluster> matching = Sets.newIdentityHashSet();
+            matching.addAll(filterWithPredicate(db.getElasticsearchClusters(), predicate, ElasticsearchCluster.class));
+            handleSimpleRequest(response, Multimaps.filterValues(db.getElasticsearchClusters(),
+                Predicates.in(matching)));
+        } catch (IllegalArgumentException e) {
+            try {
+                response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+                final ServletOutputStream outputStream = response.getOutputStream();
+                outputStream.print(e.toString());
+                outputStream.close();
+            } catch (IOException ioe) {
+                log.error("I/O error handling Elasticsearch request", ioe);
+            }
+        }
+    }
+
+    /**
+     * Instances by IP, hostname or IPv4 CIDR block, keyed by what was asked. Addresses come from {@code a}
+     * parameters or, for batches too large for a URL, from the lines of a POSTed body.
+     * Addresses no instance owns are left out.
+     */
+    private void handleEC2Lookup(HttpServletRequest request,
+                                 HttpServletResponse response,
+                                 Map<String, String[]> params,
+                                 AWSDatabase db) {
+        try {
+            final Set<String> addresses = getValues(request, params, "a");
+            final AddressIndex index = AddressIndex.of(db.getEc2Instances());
+            final Map<String, List<EC2Instance>> owners = new LinkedHashMap<>();
+            for (String address : addresses) {
+                final List<EC2Instance> owned = index.lookup(address);
+                if (!owned.isEmpty())
+                    owners.put(address, owned);
+            }
+            handleSimpleRequest(response, owners);
+        } catch (IllegalArgumentException e) {
+            try {
+                response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+                final ServletOutputStream outputStream = response.getOutputStream();
+                outputStream.print(e.toString());
+                outputStream.close();
+            } catch (IOException ioe) {
+                log.error("I/O error handling EC2 lookup", ioe);
+            }
+        } catch (IOException e) {
+            response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            log.error("I/O error handling EC2 lookup", e);
+        }
+    }
+
+    /**
+     * The resources with that id, 404 if there are none.
+     */
+    private void handleId(HttpServletResponse response, AWSService service, String id, AWSDatabase db) {
+        final List<?> resources = ResourceIds.of(db, service).get(id);
+        if (resources.isEmpty()) {
+            response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        handleSimpleRequest(response, resources);
+    }
+
+    /**
+     * Resources of the {@code type} collection, named as under {@code refreshRates}, by id, keyed by id.
+     * Ids come from {@code id} parameters or the lines of a POSTed body. Ids nothing has are left out.
+     */
+    private void handleIds(HttpServletRequest request,
+                           HttpServletResponse response,
+                           Map<String, String[]> params,
+                           AWSDatabase db) {
+        final String[] types = params.get("type");
+        ImmutableListMultimap<String, ?> ids = null;
+        for (AWSService service : AWSService.values()) {
+            if (types != null && service.getConfigName().equals(types[0]))
+                ids = ResourceIds.of(db, service);
+        }
+        try {
+            if (ids == null) {
+                response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+                final ServletOutputStream outputStream = response.getOutputStream();
+                outputStream.print("Unknown type " + (types == null ? null : types[0]));
+                outputStream.close();
+                return;
+            }
+            final Map<String, List<?>> resources = new LinkedHashMap<>();
+            for (String id : getValues(request, params, "id")) {
+                final List<?> withId = ids.get(id);
+                if (!withId.isEmpty())
+                    resources.put(id, withId);
+            }
+            handleSimpleRequest(response, resources);
+        } catch (IOException e) {
+            response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            log.error("I/O error handling ids request", e);
+        }
+    }
+
+    /**
+     * @return the values of a parameter followed by the non-blank lines of a POSTed body, without duplicates
+     */
+    private static Set<String> getValues(HttpServletRequest request, Map<String, String[]> params, String name)
+        throws IOException {
+        final Set<String> values = new LinkedHashSet<>();
+        final String[] fromParams = params.get(name);
+        if (fromParams != null)
+            values.addAll(Arrays.asList(fromParams));
+        if ("POST".equals(request.getMethod())) {
+            final BufferedReader reader = request.getReader();
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                if (!line.trim().isEmpty())
+                    values.add(line.trim());
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Everything carrying a tag, or a tag with a given value, keyed like the endpoints serving each collection.
+     */
+    private void handleTags(HttpServletResponse response,
+                            Map<String, String[]> params,
+                            AWSDatabase db) {
+        final String[] keys = params.get("key");
+        if (keys == null) {
+            try {
+                response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+                final ServletOutputStream outputStream = response.getOutputStream();
+                outputStream.print("Missing key parameter");
+                outputStream.close();
+            } catch (IOException e) {
+                log.error("I/O error handling tags request", e);
+            }
+            return;
+        }
+        final String key = keys[0];
+        final String[] values = params.get("value");
+        final String value = values == null ? null : values[0];
+
+        handleSimpleRequest(response, ImmutableMap.<String, Object>builder()
+            .put("ec2", ResourceIndex.of(db.getEc2Instances(), EC2Instance.class).tagged(key, value))
+            .put("rds", ResourceIndex.of(db.getRdsInstances(), RDSInstance.class).tagged(key, value))
+            .put("dynamo", ResourceIndex.of(db.getDynamoTables(), DynamoTable.class).tagged(key, value))
+            .put("sqs", ResourceIndex.of(db.getSqsQueues(), SQSQueue.class).tagged(key, value))
+            .put("elasticache", ResourceIndex.of(db.getElasticacheClusters(), ElasticacheCluster.class).tagged(key, value))
+            .put("elasticsearch", ResourceIndex.of(db.getElasticsearchClusters(), ElasticsearchCluster.class).tagged(key, value))
+            .build());
+    }
+
     private void handleComplexElasticacheCluster(HttpServletResponse response,
                                   Map<String, String[]> params,
                                   AWSDatabase db) {
         final String query = getQuery(params);
+        final String predicate = getPredicate(params);
         final String sort = getSort(params);
         final int limit = getLimit(params);
         final Set<String> fields = getFields(params);
@@ -172,8 +442,8 @@ public class Handler extends AbstractHandler {
         response.setHeader(HttpHeaders.CONTENT_TYPE, ContentType.APPLICATION_JSON.getMimeType());
         try {
             try {
-                final Collection<ElasticacheCluster> queriedQueues = listCacheClustersFromQueryExpression(query, db);
-                final Collection<ElasticacheCluster> sortedQueues = sortWithExpression(queriedQueues, sort);
+                final Collection<ElasticacheCluster> queriedQueues = listCacheClustersFromQueryExpression(query, predicate, db);
+                final Collection<ElasticacheCluster> sortedQueues = sortWithExpression(queriedQueues, sort, limit);
                 final Iterable<ElasticacheCluster> servedQueues = Iterables.limit(sortedQueues, limit);
 
                 if (!(servedQueues.iterator().hasNext())) {
@@ -207,6 +477,7 @@ public class Handler extends AbstractHandler {
                                      Map<String, String[]> params,
                                      AWSDatabase db) {
         final String query = getQuery(params);
+        final String predicate = getPredicate(params);
         final String sort = getSort(params);
         final int limit = getLimit(params);
         final Set<String> fields = getFields(params);
@@ -214,8 +485,8 @@ public class Handler extends AbstractHandler {
         response.setHeader(HttpHeaders.CONTENT_TYPE, ContentType.APPLICATION_JSON.getMimeType());
         try {
             try {
-                final Collection<SQSQueue> queriedQueues = listQueuesFromQueryExpression(query, db);
-                final Collection<SQSQueue> sortedQueues = sortWithExpression(queriedQueues, sort);
+                final Collection<SQSQueue> queriedQueues = listQueuesFromQueryExpression(query, predicate, db);
+                final Collection<SQSQueue> sortedQueues = sortWithExpression(queriedQueues, sort, limit);
                 final Iterable<SQSQueue> servedQueues = Iterables.limit(sortedQueues, limit);
 
                 if (!(servedQueues.iterator().hasNext())) {
@@ -249,6 +520,7 @@ public class Handler extends AbstractHandler {
                                     Map<String, String[]> params,
                                     AWSDatabase db) {
         final String query = getQuery(params);
+        final String predicate = getPredicate(params);
         final String sort = getSort(params);
         final int limit = getLimit(params);
         final Set<String> fields = getFields(params);
@@ -256,8 +528,8 @@ public class Handler extends AbstractHandler {
         response.setHeader(HttpHeaders.CONTENT_TYPE, ContentType.APPLICATION_JSON.getMimeType());
         try {
             try {
-                final Collection<DynamoTable> queriedTables = listTablesFromQueryExpression(query, db);
-                final Collection<DynamoTable> sortedTables = sortWithExpression(queriedTables, sort);
+                final Collection<DynamoTable> queriedTables = listTablesFromQueryExpression(query, predicate, db);
+                final Collection<DynamoTable> sortedTables = sortWithExpression(queriedTables, sort, limit);
                 final Iterable<DynamoTable> servedTables = Iterables.limit(sortedTables, limit);
 
                 if (!(servedTables.iterator().hasNext())) {
@@ -291,6 +563,7 @@ public class Handler extends AbstractHandler {
                                   Map<String, String[]> params,
                                   AWSDatabase db) {
         final String query = getQuery(params);
+        final String predicate = getPredicate(params);
         final String sort = getSort(params);
         final int limit = getLimit(params);
         final Set<String> fields = getFields(params);
@@ -299,8 +572,8 @@ public class Handler extends AbstractHandler {
 
         try {
             try {
-                final Collection<EC2Instance> queriedInstances = listInstancesFromQueryExpression(query, db);
-                final Collection<EC2Instance> sortedInstances = sortWithExpression(queriedInstances, sort);
+                final Collection<EC2Instance> queriedInstances = listInstancesFromQueryExpression(query, predicate, db);
+                final Collection<EC2Instance> sortedInstances = sortWithExpression(queriedInstances, sort, limit);
                 final Iterable<EC2Instance> servedInstances = Iterables.limit(sortedInstances, limit);
 
                 if (!(servedInstances.iterator().hasNext())) {
@@ -334,6 +607,7 @@ public class Handler extends AbstractHandler {
                                   Map<String, String[]> params,
                                   AWSDatabase db) {
         final String query = getQuery(params);
+        final String predicate = getPredicate(params);
         final String sort = getSort(params);
         final int limit = getLimit(params);
         final Set<String> fields = getFields(params);
@@ -342,8 +616,8 @@ public class Handler extends AbstractHandler {
 
         try {
             try {
-                final Collection<RDSInstance> queriedInstances = listDatabaseInstancesFromQueryExpression(query, db);
-                final Collection<RDSInstance> sortedInstances = sortWithExpression(queriedInstances, sort);
+                final Collection<RDSInstance> queriedInstances = listDatabaseInstancesFromQueryExpression(query, predicate, db);
+                final Collection<RDSInstance> sortedInstances = sortWithExpression(queriedInstances, sort, limit);
                 final Iterable<RDSInstance> servedInstances = Iterables.limit(sortedInstances, limit);
 
                 if (!(servedInstances.iterator().hasNext())) {
@@ -373,121 +647,127 @@ public class Handler extends AbstractHandler {
         }
     }
 
-    Collection<DynamoTable> listTablesFromQueryExpression(final String expression, final AWSDatabase db)
+    Collection<DynamoTable> listTablesFromQueryExpression(final String expression, final String predicate, final AWSDatabase db)
         throws OgnlException {
-        final Collection<DynamoTable> allTables = db.getDynamoTables().values();
-        if (expression == null)
-            return allTables;
-
-        final Object compiled = Ognl.parseExpression(expression);
-        final List<DynamoTable> tables = new ArrayList<>();
-
-        for (DynamoTable table : allTables) {
-            final Object value = Ognl.getValue(compiled, table);
-            if (value instanceof Boolean && (Boolean) value)
-                tables.add(table);
-        }
-
-        return tables;
+        final Collection<DynamoTable> allTables = filterWithPredicate(db.getDynamoTables(), predicate, DynamoTable.class);
+        return filterWithExpression(allTables, expression);
     }
 
-    Collection<SQSQueue> listQueuesFromQueryExpression(final String expression, final AWSDatabase db)
+    Collection<SQSQueue> listQueuesFromQueryExpression(final String expression, final String predicate, final AWSDatabase db)
         throws OgnlException {
-        final Collection<SQSQueue> allQueues = db.getSqsQueues().values();
-        if (expression == null)
-            return allQueues;
-
-        final Object compiled = Ognl.parseExpression(expression);
-        final List<SQSQueue> queues = new ArrayList<>();
-
-        for (SQSQueue queue : allQueues) {
-            final Object value = Ognl.getValue(compiled, queue);
-            if (value instanceof Boolean && (Boolean) value)
-                queues.add(queue);
-        }
-
-        return queues;
+        final Collection<SQSQueue> allQueues = filterWithPredicate(db.getSqsQueues(), predicate, SQSQueue.class);
+        return filterWithExpression(allQueues, expression);
     }
 
-    Collection<ElasticacheCluster> listCacheClustersFromQueryExpression(final String expression, final AWSDatabase db)
+    Collection<ElasticacheCluster> listCacheClustersFromQueryExpression(final String expression, final String predicate, final AWSDatabase db)
         throws OgnlException {
-        final Collection<ElasticacheCluster> allClusters = db.getElasticacheClusters().values();
-        if (expression == null)
-            return allClusters;
-
-        final Object compiled = Ognl.parseExpression(expression);
-        final List<ElasticacheCluster> clusters = new ArrayList<>();
-
-        for (ElasticacheCluster cluster : allClusters) {
-            final Object value = Ognl.getValue(compiled, cluster);
-            if (value instanceof Boolean && (Boolean) value)
-                clusters.add(cluster);
-        }
-
-        return clusters;
+        final Collection<ElasticacheCluster> allClusters = filterWithPredicate(db.getElasticacheClusters(), predicate, ElasticacheCluster.class);
+        return filterWithExpression(allClusters, expression);
     }
 
-    <T> Collection<T> sortWithExpression(final Collection<T> set, final String expression)
+    /**
+     * @param expression comma-separated OGNL sort keys, each optionally followed by {@code asc} or {@code desc}
+     * @param limit how many of the first elements are needed, the others are left out
+     */
+    <T> Collection<T> sortWithExpression(final Collection<T> set, final String expression, final int limit)
         throws OgnlException {
         if (expression == null)
             return set;
 
-        final Object compiled = Ognl.parseExpression(expression);
+        final List<SortKey> sortKeys = SortKey.parse(expression);
+        if (set.isEmpty()) {
+            for (SortKey sortKey : sortKeys)
+                Ognl.parseExpression(sortKey.expression);
+            return set;
+        }
 
-        final ArrayList<T> result = new ArrayList<>(set);
-        Collections.sort(result, new Comparator<T>() {
-            public int compare(T o1, T o2) {
+        final T sample = set.iterator().next();
+        final ExpressionCache.Expression[] compiled = new ExpressionCache.Expression[sortKeys.size()];
+        for (int i = 0; i < compiled.length; i++)
+            compiled[i] = expressions.get(sortKeys.get(i).expression, sample);
+        final OgnlContext context = compiled[0].newContext();
+
+        // Every key is evaluated once per element, not once per comparison
+        final List<Sortable<T>> decorated = new ArrayList<>(set.size());
+        for (T item : set) {
+            final Object[] keys = new Object[compiled.length];
+            for (int i = 0; i < compiled.length; i++) {
                 try {
-                    final Object v1 = Ognl.getValue(compiled, o1);
-                    final Object v2 = Ognl.getValue(compiled, o2);
-
-                    if (v1 instanceof Comparable) {
-                        return ((Comparable) v1).compareTo(v2);
-                    }
+                    keys[i] = compiled[i].getValue(context, item);
                 } catch (OgnlException e) {
-                    return 0;
+                    keys[i] = null;
                 }
-                return 0;
             }
-        });
+            decorated.add(new Sortable<>(decorated.size(), keys, item));
+        }
 
+        final Comparator<Sortable<T>> comparator = Sortable.comparator(sortKeys);
+        final List<Sortable<T>> sorted;
+        if (limit < decorated.size()) {
+            // Top-K: the heap keeps the limit best so far, worst on top
+            final PriorityQueue<Sortable<T>> heap =
+                new PriorityQueue<>(Math.max(1, limit), Collections.reverseOrder(comparator));
+            for (Sortable<T> element : decorated) {
+                if (heap.size() < limit) {
+                    heap.add(element);
+                } else if (limit > 0 && comparator.compare(element, heap.peek()) < 0) {
+                    heap.poll();
+                    heap.add(element);
+                }
+            }
+            sorted = new ArrayList<>(heap);
+        } else {
+            sorted = decorated;
+        }
+        Collections.sort(sorted, comparator);
+
+        final List<T> result = new ArrayList<>(sorted.size());
+        for (Sortable<T> element : sorted)
+            result.add(element.item);
         return result;
     }
 
-    Collection<EC2Instance> listInstancesFromQueryExpression(final String expression, final AWSDatabase db)
-            throws OgnlException {
-        final Collection<EC2Instance> allInstances = db.getEc2Instances().values();
+    private static <T> Collection<T> filterWithPredicate(final ImmutableMultimap<String, T> all,
+                                                         final String predicate,
+                                                         final Class<T> type) {
+        if (predicate == null)
+            return all.values();
+        return ResourceIndex.of(all, type).filter(PredicateQuery.plan(predicate, type));
+    }
+
+    private <T> Collection<T> filterWithExpression(final Collection<T> all, final String expression)
+        throws OgnlException {
         if (expression == null)
-            return allInstances;
+            return all;
+        if (all.isEmpty()) {
+            // Still reject what does not parse
+            Ognl.parseExpression(expression);
+            return all;
+        }
 
-        final Object compiled = Ognl.parseExpression(expression);
-        final List<EC2Instance> instances = new ArrayList<>();
+        final ExpressionCache.Expression compiled = expressions.get(expression, all.iterator().next());
+        final OgnlContext context = compiled.newContext();
+        final List<T> matching = new ArrayList<>();
 
-        for (EC2Instance instance : allInstances) {
-            final Object value = Ognl.getValue(compiled, instance);
+        for (T item : all) {
+            final Object value = compiled.getValue(context, item);
             if (value instanceof Boolean && (Boolean) value)
-                instances.add(instance);
+                matching.add(item);
         }
 
-        return instances;
+        return matching;
     }
 
-    Collection<RDSInstance> listDatabaseInstancesFromQueryExpression(final String expression, final AWSDatabase db)
-            throws OgnlException {
-        final Collection<RDSInstance> allInstances = db.getRdsInstances().values();
-        if (expression == null)
-            return allInstances;
-
-        final Object compiled = Ognl.parseExpression(expression);
-        final List<RDSInstance> instances = new ArrayList<>();
-
-        for (RDSInstance instance : allInstances) {
-            final Object value = Ognl.getValue(compiled, instance);
-            if (value instanceof Boolean && (Boolean) value)
-                instances.add(instance);
-        }
+    Collection<EC2Instance> listInstancesFromQueryExpression(final String expression, final String predicate, final AWSDatabase db)
+        throws OgnlException {
+        final Collection<EC2Instance> allInstances = filterWithPredicate(db.getEc2Instances(), predicate, EC2Instance.class);
+        return filterWithExpression(allInstances, expression);
+    }
 
-        return instances;
+    Collection<RDSInstance> listDatabaseInstancesFromQueryExpression(final String expression, final String predicate, final AWSDatabase db)
+        throws OgnlException {
+        final Collection<RDSInstance> allInstances = filterWithPredicate(db.getRdsInstances(), predicate, RDSInstance.class);
+        return filterWithExpression(allInstances, expression);
     }
 
     private String getQuery(Map<String, String[]> params) {
@@ -500,6 +780,16 @@ public class Handler extends AbstractHandler {
         return null;
     }
 
+    private String getPredicate(Map<String, String[]> params) {
+        final String[] ps = params.get("p");
+        if (ps != null)
+            return ps[0];
+        final String[] predicates = params.get("predicate");
+        if (predicates != null)
+            return predicates[0];
+        return null;
+    }
+
     private String getSort(Map<String, String[]> params) {
         final String[] ss = params.get("s");
         if (ss != null)
@@ -529,4 +819,92 @@ public class Handler extends AbstractHandler {
             return Sets.newHashSet(Splitter.on(',').split(fields[0]));
         return null;
     }
+
+    private static final class SortKey {
+        private static final Pattern DIRECTION = Pattern.compile("(?i)^(.*\\S)\\s+(asc|desc)$");
+
+        private final String expression;
+        private final boolean descending;
+
+        private SortKey(String expression, boolean descending) {
+            this.expression = expression;
+            this.descending = descending;
+        }
+
+        /**
+         * Splits on the commas outside of parentheses, brackets and quotes.
+         */
+        static List<SortKey> parse(String expression) {
+            final List<SortKey> keys = new ArrayList<>();
+            int depth = 0;
+            char quote = 0;
+            int start = 0;
+            for (int i = 0; i <= expression.length(); i++) {
+                final char c = i < expression.length() ? expression.charAt(i) : ',';
+                if (quote != 0) {
+                    if (c == quote)
+                        quote = 0;
+                } else if (c == '\'' || c == '"') {
+                    quote = c;
+                } else if (c == '(' || c == '[' || c == '{') {
+                    depth++;
+                } else if (c == ')' || c == ']' || c == '}') {
+                    depth--;
+                } else if (c == ',' && depth == 0) {
+                    final String key = expression.substring(start, Math.min(i, expression.length())).trim();
+                    final Matcher matcher = DIRECTION.matcher(key);
+                    if (matcher.matches())
+                        keys.add(new SortKey(matcher.group(1), matcher.group(2).equalsIgnoreCase("desc")));
+                    else
+                        keys.add(new SortKey(key, false));
+                    start = i + 1;
+                }
+            }
+            return keys;
+        }
+    }
+
+    private static final class Sortable<T> {
+        private final int index;
+        private final Object[] keys;
+        private final T item;
+
+        private Sortable(int index, Object[] keys, T item) {
+            this.index = index;
+            this.keys = keys;
+            this.item = item;
+        }
+
+        /**
+         * Missing and incomparable keys sort last in either direction, ties keep the original order.
+         */
+        static <T> Comparator<Sortable<T>> comparator(final List<SortKey> sortKeys) {
+            return new Comparator<Sortable<T>>() {
+                @Override
+                @SuppressWarnings("unchecked")
+                public int compare(Sortable<T> s1, Sortable<T> s2) {
+                    for (int i = 0; i < s1.keys.length; i++) {
+                        final Object v1 = s1.keys[i];
+                        final Object v2 = s2.keys[i];
+                        final boolean comparable1 = v1 instanceof Comparable;
+                        final boolean comparable2 = v2 instanceof Comparable;
+                        if (comparable1 != comparable2)
+                            return comparable1 ? -1 : 1;
+                        if (!comparable1)
+                            continue;
+
+                        int comparison;
+                        try {
+                            comparison = ((Comparable<Object>) v1).compareTo(v2);
+                        } catch (ClassCastException e) {
+                            comparison = 0;
+                        }
+                        if (comparison != 0)
+                            return sortKeys.get(i).descending ? -comparison : comparison;
+                    }
+                    return Integer.compare(s1.index, s2.index);
+                }
+            };
+        }
+    }
 }
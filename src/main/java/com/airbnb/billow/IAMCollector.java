@@ -0,0 +1,94 @@
+package com.airbnb.billow;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.amazonaws.services.identitymanagement.AmazonIdentityManagement;
+import com.amazonaws.services.identitymanagement.model.AccessKeyMetadata;
+import com.amazonaws.services.identitymanagement.model.ListAccessKeysRequest;
+import com.amazonaws.services.identitymanagement.model.ListAccessKeysResult;
+import com.amazonaws.services.identitymanagement.model.ListUsersRequest;
+import com.amazonaws.services.identitymanagement.model.ListUsersResult;
+import com.amazonaws.services.identitymanagement.model.User;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.typesafe.config.Config;
+
+/**
+ * Lists IAM users in large pages and their access keys a few users at a time.
+ * <p>
+ * IAM is global and throttles hard; its calls are paced and slowed down by the AWS rate limit like any other.
+ */
+@Slf4j
+class IAMCollector {
+    private final AmazonIdentityManagement client;
+    private final int pageSize;
+    private final ExecutorService executor;
+
+    IAMCollector(AmazonIdentityManagement client, Config config) {
+        this.client = client;
+        this.pageSize = config.getInt("pageSize");
+        this.executor = Executors.newFixedThreadPool(config.getInt("threads"),
+            new ThreadFactoryBuilder().setNameFormat("iam-%d").setDaemon(true).build());
+    }
+
+    /**
+     * @param reuse the users of the previous snapshot, matched by name
+     */
+    List<IAMUserWithKeys> collect(final ResourceReuse<IAMUserWithKeys> reuse) throws Exception {
+        final List<Future<IAMUserWithKeys>> futures = new ArrayList<>();
+        try {
+            final ListUsersRequest listUsersRequest = new ListUsersRequest().withMaxItems(pageSize);
+            ListUsersResult listUsersResult;
+            do {
+                log.debug("Performing IAM request: {}", listUsersRequest);
+                listUsersResult = client.listUsers(listUsersRequest);
+                log.debug("Found {} users", listUsersResult.getUsers().size());
+                for (final User user : listUsersResult.getUsers()) {
+                    futures.add(executor.submit(new Callable<IAMUserWithKeys>() {
+                        @Override
+                        public IAMUserWithKeys call() throws Exception {
+                            return reuse.same(user.getUserName(), new IAMUserWithKeys(user, listAccessKeys(user)));
+                        }
+                    }));
+                }
+                listUsersRequest.setMarker(listUsersResult.getMarker());
+            } while (listUsersResult.isTruncated());
+
+            final List<IAMUserWithKeys> users = new ArrayList<>(futures.size());
+            for (Future<IAMUserWithKeys> future : futures)
+                users.add(future.get());
+            return users;
+        } catch (ExecutionException e) {
+            Throwables.propagateIfPossible(e.getCause(), Exception.class);
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            for (Future<IAMUserWithKeys> future : futures)
+                future.cancel(true);
+        }
+    }
+
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private ImmutableList<AccessKeyMetadata> listAccessKeys(User user) {
+        final ImmutableList.Builder<AccessKeyMetadata> keys = new ImmutableList.Builder<>();
+        final ListAccessKeysRequest request = new ListAccessKeysRequest().withUserName(user.getUserName());
+        ListAccessKeysResult result;
+        do {
+            result = client.listAccessKeys(request);
+            keys.addAll(result.getAccessKeyMetadata());
+            request.setMarker(result.getMarker());
+        } while (result.isTruncated() != null && result.isTruncated());
+        return keys.build();
+    }
+}
@@ -5,8 +5,10 @@ import com.amazonaws.services.identitymanagement.model.User;
 import com.google.common.collect.ImmutableList;
 import lombok.Data;
 
+import java.io.Serializable;
+
 @Data
-public class IAMUserWithKeys {
+public class IAMUserWithKeys implements Serializable {
     private final User user;
     private final ImmutableList<AccessKeyMetadata> keys;
 }
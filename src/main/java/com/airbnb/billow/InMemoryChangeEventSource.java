@@ -0,0 +1,34 @@
+package com.airbnb.billow;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Notifications published from within the process, for testing and embedding.
+ */
+public class InMemoryChangeEventSource implements ChangeEventSource {
+    private final BlockingQueue<String> queue = new LinkedBlockingQueue<>();
+    private final List<String> polled = new ArrayList<>();
+
+    public void publish(String notification) {
+        queue.add(notification);
+    }
+
+    @Override
+    public synchronized List<String> poll() {
+        // Whatever was not committed gets delivered again
+        queue.drainTo(polled);
+        return new ArrayList<>(polled);
+    }
+
+    @Override
+    public synchronized void commit() {
+        polled.clear();
+    }
+
+    @Override
+    public void close() {
+    }
+}
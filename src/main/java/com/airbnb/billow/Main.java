@@ -1,5 +1,6 @@
 package com.airbnb.billow;
 
+import com.amazonaws.services.sqs.AmazonSQSClientBuilder;
 import com.codahale.metrics.CachedGauge;
 import com.codahale.metrics.Gauge;
 import com.codahale.metrics.MetricRegistry;
@@ -26,7 +27,9 @@ import org.quartz.SimpleTrigger;
 import org.quartz.impl.StdSchedulerFactory;
 
 import javax.servlet.ServletContext;
+import java.io.File;
 import java.io.IOException;
+import java.util.Date;
 import java.util.concurrent.TimeUnit;
 
 import static com.google.common.io.Resources.getResource;
@@ -54,12 +57,13 @@ public class Main {
         final Config awsConfig = config.getConfig("aws");
         final Long refreshRate = awsConfig.getDuration("refreshRate", TimeUnit.MILLISECONDS);
 
-        final AWSDatabaseHolder dbHolder = new AWSDatabaseHolder(awsConfig);
+        final AWSDatabaseHolder dbHolder = new AWSDatabaseHolder(awsConfig, metricRegistry);
 
         final Gauge<Long> cacheAgeGauge = new CachedGauge<Long>(1, TimeUnit.MINUTES) {
             @Override
             protected Long loadValue() {
-                return dbHolder.getCurrent().getAgeInMs();
+                final AWSDatabase db = dbHolder.getCurrent();
+                return db == null ? null : db.getAgeInMs();
             }
         };
 
@@ -70,6 +74,25 @@ public class Main {
 
         metricRegistry.register(databaseAgeMetricName, cacheAgeGauge);
 
+        for (final AWSService service : AWSService.values()) {
+            metricRegistry.register(MetricRegistry.name("billow", "database", service.getConfigName(), "age", "ms"),
+                new CachedGauge<Long>(1, TimeUnit.MINUTES) {
+                    @Override
+                    protected Long loadValue() {
+                        final AWSDatabase db = dbHolder.getCurrent();
+                        return db == null ? null : db.getAgeInMs(service);
+                    }
+                });
+            metricRegistry.register(MetricRegistry.name("billow", "database", service.getConfigName(), "staleRegions"),
+                new Gauge<Integer>() {
+                    @Override
+                    public Integer getValue() {
+                        final AWSDatabase db = dbHolder.getCurrent();
+                        return db == null ? null : db.getStaleRegions(service).size();
+                    }
+                });
+        }
+
         final Scheduler scheduler = StdSchedulerFactory.getDefaultScheduler();
         scheduler.getContext().put(AWSDatabaseHolderRefreshJob.DB_KEY, dbHolder);
         scheduler.getContext().put(AWSDatabaseHolderRefreshJob.START_COUNTER_KEY, metricRegistry.counter(jobStartMetricName));
@@ -77,17 +100,94 @@ public class Main {
         scheduler.getContext().put(AWSDatabaseHolderRefreshJob.SUCCESS_COUNTER_KEY, metricRegistry.counter(jobSuccessMetricName));
         scheduler.start();
 
-        final SimpleTrigger trigger = newTrigger().
-                withIdentity(AWSDatabaseHolderRefreshJob.NAME).
-                startNow().
-                withSchedule(simpleSchedule().withIntervalInMilliseconds(refreshRate).repeatForever()).
-                build();
+        if (!dbHolder.isReady()) {
+            // Build the first DB in the background and retry until it succeeds, serving 503s meanwhile
+            final long startupRetryRate = awsConfig.getDuration("startupRetryRate", TimeUnit.MILLISECONDS);
+            final SimpleTrigger trigger = newTrigger().
+                    withIdentity(AWSDatabaseHolderRefreshJob.NAME).
+                    startNow().
+                    withSchedule(simpleSchedule().withIntervalInMilliseconds(startupRetryRate).repeatForever()).
+                    build();
+
+            final JobDetail jobDetail = newJob(AWSDatabaseHolderRefreshJob.class).
+                    withIdentity(AWSDatabaseHolderRefreshJob.NAME).
+                    build();
+
+            scheduler.scheduleJob(jobDetail, trigger);
+        }
+
+        for (AWSService service : AWSService.values()) {
+            final long serviceRefreshRate = dbHolder.getRefreshRateInMs(service);
+            final String name = AWSDatabaseHolderRefreshJob.NAME + "." + service.getConfigName();
+
+            // Refresh when due: one interval after a fresh crawl, possibly right away for a restored snapshot.
+            // Replicas restored from older snapshots thus spread their first crawls instead of all starting at once.
+            // Without a snapshot, the initial rebuild crawls everything anyway.
+            final AWSDatabase restored = dbHolder.getCurrent();
+            final long firstRefresh = restored == null ?
+                    System.currentTimeMillis() + serviceRefreshRate :
+                    Math.max(System.currentTimeMillis(), restored.getTimestamp(service) + serviceRefreshRate);
+            final SimpleTrigger trigger = newTrigger().
+                    withIdentity(name).
+                    startAt(new Date(firstRefresh)).
+                    withSchedule(simpleSchedule().withIntervalInMilliseconds(serviceRefreshRate).repeatForever()).
+                    build();
+
+            final JobDetail jobDetail = newJob(AWSDatabaseHolderRefreshJob.class).
+                    withIdentity(name).
+                    usingJobData(AWSDatabaseHolderRefreshJob.SERVICE_KEY, service.name()).
+                    build();
+
+            scheduler.scheduleJob(jobDetail, trigger);
+        }
+
+        final Config volatileConfig = awsConfig.getConfig("volatileRefresh");
+        if (volatileConfig.getBoolean("enabled")) {
+            scheduler.getContext().put(VolatileRefreshJob.FAILURE_COUNTER_KEY,
+                    metricRegistry.counter(MetricRegistry.name("billow", "database", "volatile", "failure")));
+
+            final SimpleTrigger trigger = newTrigger().
+                    withIdentity(VolatileRefreshJob.NAME).
+                    startNow().
+                    withSchedule(simpleSchedule().
+                            withIntervalInMilliseconds(volatileConfig.getDuration("rate", TimeUnit.MILLISECONDS)).
+                            repeatForever()).
+                    build();
+
+            final JobDetail jobDetail = newJob(VolatileRefreshJob.class).
+                    withIdentity(VolatileRefreshJob.NAME).
+                    build();
 
-        final JobDetail jobDetail = newJob(AWSDatabaseHolderRefreshJob.class).
-                withIdentity(AWSDatabaseHolderRefreshJob.NAME).
-                build();
+            scheduler.scheduleJob(jobDetail, trigger);
+        }
 
-        scheduler.scheduleJob(jobDetail, trigger);
+        final Config eventsConfig = awsConfig.getConfig("events");
+        final ChangeEventSource changeEventSource;
+        if (eventsConfig.getBoolean("enabled")) {
+            log.info("Applying change events from {}", eventsConfig.getString("source"));
+            changeEventSource = createChangeEventSource(eventsConfig);
+            scheduler.getContext().put(ChangeEventJob.SOURCE_KEY, changeEventSource);
+            scheduler.getContext().put(ChangeEventJob.APPLIED_COUNTER_KEY,
+                    metricRegistry.counter(MetricRegistry.name("billow", "events", "applied")));
+            scheduler.getContext().put(ChangeEventJob.FAILURE_COUNTER_KEY,
+                    metricRegistry.counter(MetricRegistry.name("billow", "events", "failure")));
+
+            final SimpleTrigger trigger = newTrigger().
+                    withIdentity(ChangeEventJob.NAME).
+                    startNow().
+                    withSchedule(simpleSchedule().
+                            withIntervalInMilliseconds(eventsConfig.getDuration("pollRate", TimeUnit.MILLISECONDS)).
+                            repeatForever()).
+                    build();
+
+            final JobDetail jobDetail = newJob(ChangeEventJob.class).
+                    withIdentity(ChangeEventJob.NAME).
+                    build();
+
+            scheduler.scheduleJob(jobDetail, trigger);
+        } else {
+            changeEventSource = null;
+        }
 
         log.info("Creating age health check");
         healthCheckRegistry.register("DB", new HealthCheck() {
@@ -97,6 +197,15 @@ public class Main {
             }
         });
 
+        // Readiness is kept apart from liveness: a starting instance is healthy but should not get traffic yet
+        final HealthCheckRegistry readinessRegistry = new HealthCheckRegistry();
+        readinessRegistry.register("ready", new HealthCheck() {
+            @Override
+            protected Result check() throws Exception {
+                return dbHolder.ready();
+            }
+        });
+
         log.info("Creating HTTP servers");
         final Server mainServer = new Server(config.getInt("mainPort"));
         final Server adminServer = new Server(config.getInt("adminPort"));
@@ -105,7 +214,7 @@ public class Main {
         configureConnectors(adminServer);
 
         log.info("Creating HTTP handlers");
-        final Handler mainHandler = new Handler(metricRegistry, dbHolder, refreshRate);
+        final Handler mainHandler = new Handler(metricRegistry, dbHolder, refreshRate, config.getConfig("query"));
         final InstrumentedHandler instrumentedHandler =
                 new InstrumentedHandler(metricRegistry);
         instrumentedHandler.setHandler(mainHandler);
@@ -113,6 +222,8 @@ public class Main {
         mainServer.setHandler(instrumentedHandler);
 
         final ServletContextHandler adminHandler = new ServletContextHandler();
+        adminHandler.addServlet(new ServletHolder(new HealthCheckServlet(readinessRegistry)), "/ready");
+        adminHandler.addServlet(new ServletHolder(new RefreshServlet(dbHolder)), "/refresh");
         adminHandler.addServlet(new ServletHolder(new AdminServlet()), "/*");
 
         final Config datadogConfig = config.getConfig("datadog");
@@ -142,6 +253,9 @@ public class Main {
         log.info("Shutting down scheduler...");
 
         scheduler.shutdown();
+        dbHolder.shutdown();
+        if (changeEventSource != null)
+            changeEventSource.close();
 
         log.info("We're done!");
     }
@@ -164,6 +278,21 @@ public class Main {
         }
     }
 
+    private static ChangeEventSource createChangeEventSource(Config config) {
+        final String source = config.getString("source");
+        switch (source) {
+            case "sqs":
+                final Config sqsConfig = config.getConfig("sqs");
+                return new SQSChangeEventSource(
+                        AmazonSQSClientBuilder.standard().withRegion(sqsConfig.getString("region")).build(),
+                        sqsConfig);
+            case "file":
+                return new FileChangeEventSource(new File(config.getString("file.path")));
+            default:
+                throw new IllegalArgumentException("Unknown change event source " + source);
+        }
+    }
+
     private static void configureConnectors(Server server) {
         for (Connector c : server.getConnectors()) {
             for (ConnectionFactory f : c.getConnectionFactories())
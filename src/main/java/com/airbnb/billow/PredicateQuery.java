@@ -0,0 +1,437 @@
+package com.airbnb.billow;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Predicate;
+import com.google.common.base.Predicates;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import org.joda.time.DateTime;
+
+/**
+ * A small query language compiled once into predicates over one resource class, see {@link QueryFields}:
+ * <pre>
+ *   state = running and (type in (m5.large, m5.xlarge) or tag:Role ~ '^web')
+ *   launchTime &lt; 2020-01-01 and not tag:Owner exists
+ * </pre>
+ * Comparisons are {@code = != < <= > >=}, {@code in (...)}, {@code ~} (regex, found anywhere) and {@code exists},
+ * combined with {@code and}, {@code or}, {@code not} and parentheses. Values may be quoted with ' or ".
+ * A missing value only matches {@code !=} and {@code not}.
+ */
+final class PredicateQuery {
+    private static final String TAG_PREFIX = "tag:";
+    private static final String SYMBOLS = "()=!<>~,'\"";
+
+    private enum Op {
+        EQ("="), NE("!="), LT("<"), LE("<="), GT(">"), GE(">=");
+
+        private final String symbol;
+
+        Op(String symbol) {
+            this.symbol = symbol;
+        }
+
+        boolean matches(int comparison) {
+            switch (this) {
+                case EQ: return comparison == 0;
+                case NE: return comparison != 0;
+                case LT: return comparison < 0;
+                case LE: return comparison <= 0;
+                case GT: return comparison > 0;
+                default: return comparison >= 0;
+            }
+        }
+    }
+
+    /**
+     * A top-level conjunct, with what it requires if it is an equality or {@code in} on a field or tag,
+     * or a tag {@code exists}.
+     */
+    static final class Conjunct<T> {
+        final Predicate<T> predicate;
+        /**
+         * Lower-cased, as in {@link QueryFields}, or null if this is not a comparison on a field.
+         */
+        final String field;
+        /**
+         * The tag key, or null if this is not a comparison on a tag.
+         */
+        final String tag;
+        /**
+         * Null for a tag {@code exists}.
+         */
+        final ImmutableSet<String> values;
+
+        private Conjunct(Predicate<T> predicate, String field, String tag, ImmutableSet<String> values) {
+            this.predicate = predicate;
+            this.field = field;
+            this.tag = tag;
+            this.values = values;
+        }
+    }
+
+    private final String text;
+    private final List<String> tokens;
+    private final List<Integer> positions;
+    // What the equality and in comparisons built so far are about
+    private final Map<Predicate<?>, Conjunct<?>> comparisons = new IdentityHashMap<>();
+    private int next;
+
+    private PredicateQuery(String text) {
+        this.text = text;
+        this.tokens = new ArrayList<>();
+        this.positions = new ArrayList<>();
+        tokenize();
+    }
+
+    /**
+     * @throws IllegalArgumentException if the query does not parse or does not fit the fields of that class
+     */
+    static <T> Predicate<T> compile(String text, Class<T> type) {
+        final List<Conjunct<T>> conjuncts = plan(text, type);
+        if (conjuncts.size() == 1)
+            return conjuncts.get(0).predicate;
+        final List<Predicate<T>> predicates = new ArrayList<>(conjuncts.size());
+        for (Conjunct<T> conjunct : conjuncts)
+            predicates.add(conjunct.predicate);
+        return Predicates.and(predicates);
+    }
+
+    /**
+     * Same as {@link #compile}, split into conjuncts that must all match, so that indexes can serve some of them.
+     * A query that is not a conjunction at its top level is a single conjunct.
+     */
+    @SuppressWarnings("unchecked")
+    static <T> List<Conjunct<T>> plan(String text, Class<T> type) {
+        final PredicateQuery query = new PredicateQuery(text);
+        final List<Predicate<T>> first = query.and(type);
+        final List<Conjunct<T>> conjuncts = new ArrayList<>();
+        if (query.keyword("or")) {
+            final List<Predicate<T>> terms = new ArrayList<>();
+            terms.add(all(first));
+            do {
+                terms.add(all(query.and(type)));
+            } while (query.keyword("or"));
+            conjuncts.add(new Conjunct<>(Predicates.or(terms), null, null, null));
+        } else {
+            for (Predicate<T> predicate : first) {
+                final Conjunct<T> comparison = (Conjunct<T>) query.comparisons.get(predicate);
+                conjuncts.add(comparison == null ? new Conjunct<>(predicate, null, null, null) : comparison);
+            }
+        }
+        if (query.peek() != null)
+            throw query.error("Unexpected " + query.peek());
+        return conjuncts;
+    }
+
+    private <T> Predicate<T> or(Class<T> type) {
+        final List<Predicate<T>> terms = new ArrayList<>();
+        terms.add(all(and(type)));
+        while (keyword("or"))
+            terms.add(all(and(type)));
+        return terms.size() == 1 ? terms.get(0) : Predicates.or(terms);
+    }
+
+    private <T> List<Predicate<T>> and(Class<T> type) {
+        final List<Predicate<T>> terms = new ArrayList<>();
+        terms.add(unary(type));
+        while (keyword("and"))
+            terms.add(unary(type));
+        return terms;
+    }
+
+    private static <T> Predicate<T> all(List<Predicate<T>> terms) {
+        return terms.size() == 1 ? terms.get(0) : Predicates.and(terms);
+    }
+
+    private <T> Predicate<T> unary(Class<T> type) {
+        if (keyword("not"))
+            return Predicates.not(unary(type));
+        if (symbol("(")) {
+            final Predicate<T> inner = or(type);
+            expect(")");
+            return inner;
+        }
+        return comparison(type);
+    }
+
+    private <T> Predicate<T> comparison(Class<T> type) {
+        final int position = next;
+        final String name = value();
+        final QueryFields.Field<T> field = field(type, name, position);
+
+        if (keyword("exists"))
+            return remember(exists(field), field, name, null);
+        if (keyword("in")) {
+            expect("(");
+            final List<String> values = new ArrayList<>();
+            do {
+                values.add(value());
+            } while (symbol(","));
+            expect(")");
+            return remember(in(field, values, name), field, name, values);
+        }
+        if (symbol("~")) {
+            if (!(field instanceof QueryFields.Text))
+                throw error(name + " is not text, it cannot be matched with ~");
+            return matches((QueryFields.Text<T>) field, pattern(value()));
+        }
+        for (Op op : Op.values()) {
+            if (symbol(op.symbol)) {
+                final String value = value();
+                final Predicate<T> predicate = compare(field, op, value, name);
+                return op == Op.EQ ? remember(predicate, field, name, ImmutableList.of(value)) : predicate;
+            }
+        }
+        throw error("Expected a comparison after " + name);
+    }
+
+    /**
+     * @param values null for {@code exists}
+     */
+    private <T> Predicate<T> remember(Predicate<T> predicate, QueryFields.Field<T> field, String name, List<String> values) {
+        if (isTag(name)) {
+            comparisons.put(predicate, new Conjunct<>(predicate, null, name.substring(TAG_PREFIX.length()),
+                values == null ? null : ImmutableSet.copyOf(values)));
+        } else if (field instanceof QueryFields.Text && values != null) {
+            comparisons.put(predicate,
+                new Conjunct<>(predicate, name.toLowerCase(Locale.ROOT), null, ImmutableSet.copyOf(values)));
+        }
+        return predicate;
+    }
+
+    private static boolean isTag(String name) {
+        return name.regionMatches(true, 0, TAG_PREFIX, 0, TAG_PREFIX.length());
+    }
+
+    private <T> QueryFields.Field<T> field(final Class<T> type, final String name, int position) {
+        if (isTag(name)) {
+            final String tag = name.substring(TAG_PREFIX.length());
+            final QueryFields.Tags<T> tags = QueryFields.tags(type);
+            return new QueryFields.Text<T>() {
+                String get(T resource) {
+                    final Map<String, String> resourceTags = tags.get(resource);
+                    return resourceTags == null ? null : resourceTags.get(tag);
+                }
+            };
+        }
+        final QueryFields.Field<T> field = QueryFields.field(type, name);
+        if (field == null) {
+            throw new IllegalArgumentException(String.format("Unknown field %s at %d, %s has %s and tag:<name>",
+                name, positions.get(position), type.getSimpleName(), Joiner.on(", ").join(QueryFields.names(type))));
+        }
+        return field;
+    }
+
+    private static <T> Predicate<T> exists(final QueryFields.Field<T> field) {
+        if (field instanceof QueryFields.Number) {
+            final QueryFields.Number<T> number = (QueryFields.Number<T>) field;
+            return new Predicate<T>() {
+                public boolean apply(T resource) {
+                    return number.isPresent(resource);
+                }
+            };
+        }
+        if (field instanceof QueryFields.Flag) {
+            final QueryFields.Flag<T> flag = (QueryFields.Flag<T>) field;
+            return new Predicate<T>() {
+                public boolean apply(T resource) {
+                    return flag.get(resource) != null;
+                }
+            };
+        }
+        final QueryFields.Text<T> text = (QueryFields.Text<T>) field;
+        return new Predicate<T>() {
+            public boolean apply(T resource) {
+                return text.get(resource) != null;
+            }
+        };
+    }
+
+    private <T> Predicate<T> in(final QueryFields.Field<T> field, List<String> values, String name) {
+        if (field instanceof QueryFields.Number) {
+            final QueryFields.Number<T> number = (QueryFields.Number<T>) field;
+            final long[] sorted = new long[values.size()];
+            for (int i = 0; i < sorted.length; i++)
+                sorted[i] = number(number, values.get(i), name);
+            Arrays.sort(sorted);
+            return new Predicate<T>() {
+                public boolean apply(T resource) {
+                    return number.isPresent(resource) && Arrays.binarySearch(sorted, number.get(resource)) >= 0;
+                }
+            };
+        }
+        if (field instanceof QueryFields.Flag)
+            throw error(name + " is a flag, compare it with = true or = false");
+        final QueryFields.Text<T> text = (QueryFields.Text<T>) field;
+        final ImmutableSet<String> set = ImmutableSet.copyOf(values);
+        return new Predicate<T>() {
+            public boolean apply(T resource) {
+                final String value = text.get(resource);
+                return value != null && set.contains(value);
+            }
+        };
+    }
+
+    private static <T> Predicate<T> matches(final QueryFields.Text<T> text, final Pattern pattern) {
+        return new Predicate<T>() {
+            public boolean apply(T resource) {
+                final String value = text.get(resource);
+                return value != null && pattern.matcher(value).find();
+            }
+        };
+    }
+
+    private <T> Predicate<T> compare(final QueryFields.Field<T> field, final Op op, final String value, String name) {
+        if (field instanceof QueryFields.Number) {
+            final QueryFields.Number<T> number = (QueryFields.Number<T>) field;
+            final long expected = number(number, value, name);
+            return new Predicate<T>() {
+                public boolean apply(T resource) {
+                    if (!number.isPresent(resource))
+                        return op == Op.NE;
+                    return op.matches(Long.compare(number.get(resource), expected));
+                }
+            };
+        }
+        if (field instanceof QueryFields.Flag) {
+            if (op != Op.EQ && op != Op.NE)
+                throw error(name + " is a flag, compare it with = or !=");
+            final QueryFields.Flag<T> flag = (QueryFields.Flag<T>) field;
+            final Boolean expected = Boolean.valueOf(value);
+            if (!expected && !"false".equalsIgnoreCase(value))
+                throw error(name + " is a flag, expected true or false, not " + value);
+            return new Predicate<T>() {
+                public boolean apply(T resource) {
+                    final Boolean actual = flag.get(resource);
+                    return actual == null ? op == Op.NE : actual.equals(expected) == (op == Op.EQ);
+                }
+            };
+        }
+        final QueryFields.Text<T> text = (QueryFields.Text<T>) field;
+        return new Predicate<T>() {
+            public boolean apply(T resource) {
+                final String actual = text.get(resource);
+                if (actual == null)
+                    return op == Op.NE;
+                return op.matches(actual.compareTo(value));
+            }
+        };
+    }
+
+    private long number(QueryFields.Number<?> field, String value, String name) {
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            if (field instanceof QueryFields.Time) {
+                try {
+                    return DateTime.parse(value).getMillis();
+                } catch (IllegalArgumentException notADate) {
+                    throw error(name + " is a date, expected ISO-8601 or milliseconds, not " + value);
+                }
+            }
+            throw error(name + " is a number, not " + value);
+        }
+    }
+
+    private Pattern pattern(String regex) {
+        try {
+            return Pattern.compile(regex);
+        } catch (PatternSyntaxException e) {
+            throw error("Invalid regex " + regex + ": " + e.getDescription());
+        }
+    }
+
+    private void tokenize() {
+        int i = 0;
+        while (i < text.length()) {
+            final char c = text.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+            } else if (c == '\'' || c == '"') {
+                final StringBuilder quoted = new StringBuilder();
+                int j = i + 1;
+                while (j < text.length() && text.charAt(j) != c) {
+                    if (text.charAt(j) == '\\' && j + 1 < text.length())
+                        j++;
+                    quoted.append(text.charAt(j++));
+                }
+                if (j >= text.length())
+                    throw new IllegalArgumentException("Unterminated quote at " + i);
+                // Quoted values keep their quote so that they never read as symbols or keywords
+                add(c + quoted.toString(), i);
+                i = j + 1;
+            } else if (c == '!' || c == '<' || c == '>' || c == '=') {
+                final boolean twoChars = i + 1 < text.length() && text.charAt(i + 1) == '=';
+                final String op = text.substring(i, twoChars ? i + 2 : i + 1);
+                add(op.equals("==") ? "=" : op, i);
+                i += op.length();
+            } else if (SYMBOLS.indexOf(c) >= 0) {
+                add(String.valueOf(c), i);
+                i++;
+            } else {
+                int j = i;
+                while (j < text.length() && !Character.isWhitespace(text.charAt(j)) && SYMBOLS.indexOf(text.charAt(j)) < 0)
+                    j++;
+                add(text.substring(i, j), i);
+                i = j;
+            }
+        }
+    }
+
+    private void add(String token, int position) {
+        tokens.add(token);
+        positions.add(position);
+    }
+
+    private String peek() {
+        return next < tokens.size() ? tokens.get(next) : null;
+    }
+
+    private boolean symbol(String symbol) {
+        if (symbol.equals(peek())) {
+            next++;
+            return true;
+        }
+        return false;
+    }
+
+    private boolean keyword(String keyword) {
+        final String token = peek();
+        if (token != null && token.toLowerCase(Locale.ROOT).equals(keyword)) {
+            next++;
+            return true;
+        }
+        return false;
+    }
+
+    private void expect(String symbol) {
+        if (!symbol(symbol))
+            throw error("Expected " + symbol);
+    }
+
+    private String value() {
+        final String token = peek();
+        if (token == null || (token.length() <= 2 && SYMBOLS.indexOf(token.charAt(0)) >= 0 && !isQuoted(token)))
+            throw error("Expected a value");
+        next++;
+        return isQuoted(token) ? token.substring(1) : token;
+    }
+
+    private static boolean isQuoted(String token) {
+        return token.charAt(0) == '\'' || token.charAt(0) == '"';
+    }
+
+    private IllegalArgumentException error(String message) {
+        final int position = next < positions.size() ? positions.get(next) : text.length();
+        return new IllegalArgumentException(message + " at " + position + " in " + text);
+    }
+}
@@ -0,0 +1,424 @@
+package com.airbnb.billow;
+
+import java.util.Date;
+import java.util.Locale;
+import java.util.Map;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import org.joda.time.DateTime;
+
+/**
+ * The fields {@link PredicateQuery} can filter each resource class on, read through plain getter calls.
+ * Names are matched case-insensitively and follow the JSON output; dates compare as epoch milliseconds.
+ */
+final class QueryFields {
+    abstract static class Field<T> {
+    }
+
+    abstract static class Text<T> extends Field<T> {
+        abstract String get(T resource);
+    }
+
+    abstract static class Number<T> extends Field<T> {
+        abstract boolean isPresent(T resource);
+
+        abstract long get(T resource);
+    }
+
+    /**
+     * Epoch milliseconds, compared with ISO-8601 dates or plain milliseconds.
+     */
+    abstract static class Time<T> extends Number<T> {
+    }
+
+    abstract static class Flag<T> extends Field<T> {
+        abstract Boolean get(T resource);
+    }
+
+    abstract static class Tags<T> {
+        abstract Map<String, String> get(T resource);
+    }
+
+    private static final ImmutableMap<Class<?>, ImmutableMap<String, Field<?>>> FIELDS =
+        ImmutableMap.<Class<?>, ImmutableMap<String, Field<?>>>builder()
+            .put(EC2Instance.class, ec2Instance())
+            .put(RDSInstance.class, rdsInstance())
+            .put(DynamoTable.class, dynamoTable())
+            .put(SQSQueue.class, sqsQueue())
+            .put(ElasticacheCluster.class, elasticacheCluster())
+            .put(ElasticsearchCluster.class, elasticsearchCluster())
+            .build();
+
+    private static final ImmutableMap<Class<?>, Tags<?>> TAGS = ImmutableMap.<Class<?>, Tags<?>>builder()
+        .put(EC2Instance.class, new Tags<EC2Instance>() {
+            Map<String, String> get(EC2Instance i) { return i.getTags(); }
+        })
+        .put(RDSInstance.class, new Tags<RDSInstance>() {
+            Map<String, String> get(RDSInstance i) { return i.getTags(); }
+        })
+        .put(DynamoTable.class, new Tags<DynamoTable>() {
+            Map<String, String> get(DynamoTable t) { return t.getTags(); }
+        })
+        .put(SQSQueue.class, new Tags<SQSQueue>() {
+            Map<String, String> get(SQSQueue q) { return q.getTags(); }
+        })
+        .put(ElasticacheCluster.class, new Tags<ElasticacheCluster>() {
+            Map<String, String> get(ElasticacheCluster c) { return c.getTags(); }
+        })
+        .put(ElasticsearchCluster.class, new Tags<ElasticsearchCluster>() {
+            Map<String, String> get(ElasticsearchCluster c) { return c.getTags(); }
+        })
+        .build();
+
+    // Text fields with few distinct values, indexed by ResourceIndex
+    private static final ImmutableMap<Class<?>, ImmutableSet<String>> INDEXED =
+        ImmutableMap.<Class<?>, ImmutableSet<String>>of(
+            EC2Instance.class, ImmutableSet.of("az", "type", "state", "vpc", "subnet", "image", "lifecycle"),
+            RDSInstance.class, ImmutableSet.of("engine", "dbinstanceclass", "dbinstancestatus"));
+
+    private QueryFields() {
+    }
+
+    /**
+     * @return the field of that name, or null
+     */
+    @SuppressWarnings("unchecked")
+    static <T> Field<T> field(Class<T> type, String name) {
+        final ImmutableMap<String, Field<?>> fields = FIELDS.get(type);
+        if (fields == null)
+            throw new IllegalArgumentException("Cannot query " + type.getSimpleName());
+        return (Field<T>) fields.get(name.toLowerCase(Locale.ROOT));
+    }
+
+    @SuppressWarnings("unchecked")
+    static <T> Tags<T> tags(Class<T> type) {
+        return (Tags<T>) TAGS.get(type);
+    }
+
+    static Iterable<String> names(Class<?> type) {
+        return FIELDS.get(type).keySet();
+    }
+
+    static ImmutableSet<String> indexed(Class<?> type) {
+        final ImmutableSet<String> names = INDEXED.get(type);
+        return names == null ? ImmutableSet.<String>of() : names;
+    }
+
+    private static long millis(DateTime time) {
+        return time.getMillis();
+    }
+
+    private static long millis(Date time) {
+        return time.getTime();
+    }
+
+    private static ImmutableMap<String, Field<?>> ec2Instance() {
+        return fields()
+            .put("id", new Text<EC2Instance>() {
+                String get(EC2Instance i) { return i.getId(); }
+            })
+            .put("type", new Text<EC2Instance>() {
+                String get(EC2Instance i) { return i.getType(); }
+            })
+            .put("lifecycle", new Text<EC2Instance>() {
+                String get(EC2Instance i) { return i.getLifecycle(); }
+            })
+            .put("az", new Text<EC2Instance>() {
+                String get(EC2Instance i) { return i.getAz(); }
+            })
+            .put("group", new Text<EC2Instance>() {
+                String get(EC2Instance i) { return i.getGroup(); }
+            })
+            .put("tenancy", new Text<EC2Instance>() {
+                String get(EC2Instance i) { return i.getTenancy(); }
+            })
+            .put("platform", new Text<EC2Instance>() {
+                String get(EC2Instance i) { return i.getPlatform(); }
+            })
+            .put("key", new Text<EC2Instance>() {
+                String get(EC2Instance i) { return i.getKey(); }
+            })
+            .put("image", new Text<EC2Instance>() {
+                String get(EC2Instance i) { return i.getImage(); }
+            })
+            .put("privateip", new Text<EC2Instance>() {
+                String get(EC2Instance i) { return i.getPrivateIP(); }
+            })
+            .put("publicip", new Text<EC2Instance>() {
+                String get(EC2Instance i) { return i.getPublicIP(); }
+            })
+            .put("publichostname", new Text<EC2Instance>() {
+                String get(EC2Instance i) { return i.getPublicHostname(); }
+            })
+            .put("privatehostname", new Text<EC2Instance>() {
+                String get(EC2Instance i) { return i.getPrivateHostname(); }
+            })
+            .put("architecture", new Text<EC2Instance>() {
+                String get(EC2Instance i) { return i.getArchitecture(); }
+            })
+            .put("state", new Text<EC2Instance>() {
+                String get(EC2Instance i) { return i.getState(); }
+            })
+            .put("subnet", new Text<EC2Instance>() {
+                String get(EC2Instance i) { return i.getSubnet(); }
+            })
+            .put("rootdevicetype", new Text<EC2Instance>() {
+                String get(EC2Instance i) { return i.getRootDeviceType(); }
+            })
+            .put("virtualizationtype", new Text<EC2Instance>() {
+                String get(EC2Instance i) { return i.getVirtualizationType(); }
+            })
+            .put("spotinstancerequest", new Text<EC2Instance>() {
+                String get(EC2Instance i) { return i.getSpotInstanceRequest(); }
+            })
+            .put("vpc", new Text<EC2Instance>() {
+                String get(EC2Instance i) { return i.getVpc(); }
+            })
+            .put("iaminstanceprofile", new Text<EC2Instance>() {
+                String get(EC2Instance i) { return i.getIamInstanceProfile(); }
+            })
+            .put("sourcedestcheck", new Flag<EC2Instance>() {
+                Boolean get(EC2Instance i) { return i.getSourceDestCheck(); }
+            })
+            .put("launchtime", new Time<EC2Instance>() {
+                boolean isPresent(EC2Instance i) { return i.getLaunchTime() != null; }
+                long get(EC2Instance i) { return millis(i.getLaunchTime()); }
+            })
+            .build();
+    }
+
+    private static ImmutableMap<String, Field<?>> rdsInstance() {
+        return fields()
+            .put("dbinstanceidentifier", new Text<RDSInstance>() {
+                String get(RDSInstance i) { return i.getDBInstanceIdentifier(); }
+            })
+            .put("dbinstanceclass", new Text<RDSInstance>() {
+                String get(RDSInstance i) { return i.getDBInstanceClass(); }
+            })
+            .put("dbinstancestatus", new Text<RDSInstance>() {
+                String get(RDSInstance i) { return i.getDBInstanceStatus(); }
+            })
+            .put("dbclusteridentifier", new Text<RDSInstance>() {
+                String get(RDSInstance i) { return i.getDBClusterIdentifier(); }
+            })
+            .put("dbname", new Text<RDSInstance>() {
+                String get(RDSInstance i) { return i.getDBName(); }
+            })
+            .put("availabilityzone", new Text<RDSInstance>() {
+                String get(RDSInstance i) { return i.getAvailabilityZone(); }
+            })
+            .put("engine", new Text<RDSInstance>() {
+                String get(RDSInstance i) { return i.getEngine(); }
+            })
+            .put("engineversion", new Text<RDSInstance>() {
+                String get(RDSInstance i) { return i.getEngineVersion(); }
+            })
+            .put("hostname", new Text<RDSInstance>() {
+                String get(RDSInstance i) { return i.getHostname(); }
+            })
+            .put("privateip", new Text<RDSInstance>() {
+                String get(RDSInstance i) { return i.getPrivateIP(); }
+            })
+            .put("readreplicasourcedbinstanceidentifier", new Text<RDSInstance>() {
+                String get(RDSInstance i) { return i.getReadReplicaSourceDBInstanceIdentifier(); }
+            })
+            .put("cacertificateidentifier", new Text<RDSInstance>() {
+                String get(RDSInstance i) { return i.getCaCertificateIdentifier(); }
+            })
+            .put("allocatedstorage", new Number<RDSInstance>() {
+                boolean isPresent(RDSInstance i) { return i.getAllocatedStorage() != null; }
+                long get(RDSInstance i) { return i.getAllocatedStorage(); }
+            })
+            .put("iops", new Number<RDSInstance>() {
+                boolean isPresent(RDSInstance i) { return i.getIops() != null; }
+                long get(RDSInstance i) { return i.getIops(); }
+            })
+            .put("backupretentionperiod", new Number<RDSInstance>() {
+                boolean isPresent(RDSInstance i) { return i.getBackupRetentionPeriod() != null; }
+                long get(RDSInstance i) { return i.getBackupRetentionPeriod(); }
+            })
+            .put("multiaz", new Flag<RDSInstance>() {
+                Boolean get(RDSInstance i) { return i.getMultiAZ(); }
+            })
+            .put("publiclyaccessible", new Flag<RDSInstance>() {
+                Boolean get(RDSInstance i) { return i.getPubliclyAccessible(); }
+            })
+            .put("ismaster", new Flag<RDSInstance>() {
+                Boolean get(RDSInstance i) { return i.isMaster(); }
+            })
+            .put("instancecreatetime", new Time<RDSInstance>() {
+                boolean isPresent(RDSInstance i) { return i.getInstanceCreateTime() != null; }
+                long get(RDSInstance i) { return millis(i.getInstanceCreateTime()); }
+            })
+            .build();
+    }
+
+    private static ImmutableMap<String, Field<?>> dynamoTable() {
+        return fields()
+            .put("tablename", new Text<DynamoTable>() {
+                String get(DynamoTable t) { return t.getTableName(); }
+            })
+            .put("tablestatus", new Text<DynamoTable>() {
+                String get(DynamoTable t) { return t.getTableStatus(); }
+            })
+            .put("tablearn", new Text<DynamoTable>() {
+                String get(DynamoTable t) { return t.getTableArn(); }
+            })
+            .put("readcapacityunits", new Number<DynamoTable>() {
+                boolean isPresent(DynamoTable t) { return true; }
+                long get(DynamoTable t) { return t.getReadCapacityUnits(); }
+            })
+            .put("writecapacityunits", new Number<DynamoTable>() {
+                boolean isPresent(DynamoTable t) { return true; }
+                long get(DynamoTable t) { return t.getWriteCapacityUnits(); }
+            })
+            .put("tablesizebytes", new Number<DynamoTable>() {
+                boolean isPresent(DynamoTable t) { return true; }
+                long get(DynamoTable t) { return t.getTableSizeBytes(); }
+            })
+            .put("itemcount", new Number<DynamoTable>() {
+                boolean isPresent(DynamoTable t) { return true; }
+                long get(DynamoTable t) { return t.getItemCount(); }
+            })
+            .put("numberofdecreasestoday", new Number<DynamoTable>() {
+                boolean isPresent(DynamoTable t) { return true; }
+                long get(DynamoTable t) { return t.getNumberOfDecreasesToday(); }
+            })
+            .put("creationdatetime", new Time<DynamoTable>() {
+                boolean isPresent(DynamoTable t) { return t.getCreationDateTime() != null; }
+                long get(DynamoTable t) { return millis(t.getCreationDateTime()); }
+            })
+            .build();
+    }
+
+    private static ImmutableMap<String, Field<?>> sqsQueue() {
+        return fields()
+            .put("url", new Text<SQSQueue>() {
+                String get(SQSQueue q) { return q.getUrl(); }
+            })
+            .put("queuearn", new Text<SQSQueue>() {
+                String get(SQSQueue q) { return q.getQueueArn(); }
+            })
+            .put("approximatenumberofmessages", new Number<SQSQueue>() {
+                boolean isPresent(SQSQueue q) { return q.getApproximateNumberOfMessages() != null; }
+                long get(SQSQueue q) { return q.getApproximateNumberOfMessages(); }
+            })
+            .put("approximatenumberofmessagesdelayed", new Number<SQSQueue>() {
+                boolean isPresent(SQSQueue q) { return q.getApproximateNumberOfMessagesDelayed() != null; }
+                long get(SQSQueue q) { return q.getApproximateNumberOfMessagesDelayed(); }
+            })
+            .put("delayseconds", new Number<SQSQueue>() {
+                boolean isPresent(SQSQueue q) { return q.getDelaySeconds() != null; }
+                long get(SQSQueue q) { return q.getDelaySeconds(); }
+            })
+            .put("messageretentionperiod", new Number<SQSQueue>() {
+                boolean isPresent(SQSQueue q) { return q.getMessageRetentionPeriod() != null; }
+                long get(SQSQueue q) { return q.getMessageRetentionPeriod(); }
+            })
+            .put("maximummessagesize", new Number<SQSQueue>() {
+                boolean isPresent(SQSQueue q) { return q.getMaximumMessageSize() != null; }
+                long get(SQSQueue q) { return q.getMaximumMessageSize(); }
+            })
+            .put("visibilitytimeout", new Number<SQSQueue>() {
+                boolean isPresent(SQSQueue q) { return q.getVisibilityTimeout() != null; }
+                long get(SQSQueue q) { return q.getVisibilityTimeout(); }
+            })
+            .put("receivemessagewaittimeseconds", new Number<SQSQueue>() {
+                boolean isPresent(SQSQueue q) { return q.getReceiveMessageWaitTimeSeconds() != null; }
+                long get(SQSQueue q) { return q.getReceiveMessageWaitTimeSeconds(); }
+            })
+            // Seconds, as SQS reports them
+            .put("createdtimestamp", new Number<SQSQueue>() {
+                boolean isPresent(SQSQueue q) { return q.getCreatedTimestamp() != null; }
+                long get(SQSQueue q) { return q.getCreatedTimestamp(); }
+            })
+            .put("lastmodifiedtimestamp", new Number<SQSQueue>() {
+                boolean isPresent(SQSQueue q) { return q.getLastModifiedTimestamp() != null; }
+                long get(SQSQueue q) { return q.getLastModifiedTimestamp(); }
+            })
+            .build();
+    }
+
+    private static ImmutableMap<String, Field<?>> elasticacheCluster() {
+        return fields()
+            .put("cacheclusterid", new Text<ElasticacheCluster>() {
+                String get(ElasticacheCluster c) { return c.getCacheClusterId(); }
+            })
+            .put("cachenodetype", new Text<ElasticacheCluster>() {
+                String get(ElasticacheCluster c) { return c.getCacheNodeType(); }
+            })
+            .put("engine", new Text<ElasticacheCluster>() {
+                String get(ElasticacheCluster c) { return c.getEngine(); }
+            })
+            .put("engineversion", new Text<ElasticacheCluster>() {
+                String get(ElasticacheCluster c) { return c.getEngineVersion(); }
+            })
+            .put("cacheclusterstatus", new Text<ElasticacheCluster>() {
+                String get(ElasticacheCluster c) { return c.getCacheClusterStatus(); }
+            })
+            .put("preferredavailabilityzone", new Text<ElasticacheCluster>() {
+                String get(ElasticacheCluster c) { return c.getPreferredAvailabilityZone(); }
+            })
+            .put("cachesubnetgroupname", new Text<ElasticacheCluster>() {
+                String get(ElasticacheCluster c) { return c.getCacheSubnetGroupName(); }
+            })
+            .put("replicationgroupid", new Text<ElasticacheCluster>() {
+                String get(ElasticacheCluster c) { return c.getReplicationGroupId(); }
+            })
+            .put("currentrole", new Text<ElasticacheCluster>() {
+                String get(ElasticacheCluster c) { return c.getCurrentRole(); }
+            })
+            .put("numcachenodes", new Number<ElasticacheCluster>() {
+                boolean isPresent(ElasticacheCluster c) { return c.getNumCacheNodes() != null; }
+                long get(ElasticacheCluster c) { return c.getNumCacheNodes(); }
+            })
+            .put("snapshotretentionlimit", new Number<ElasticacheCluster>() {
+                boolean isPresent(ElasticacheCluster c) { return c.getSnapshotRetentionLimit() != null; }
+                long get(ElasticacheCluster c) { return c.getSnapshotRetentionLimit(); }
+            })
+            .put("autominorversionupgrade", new Flag<ElasticacheCluster>() {
+                Boolean get(ElasticacheCluster c) { return c.getAutoMinorVersionUpgrade(); }
+            })
+            .put("cacheclustercreatetime", new Time<ElasticacheCluster>() {
+                boolean isPresent(ElasticacheCluster c) { return c.getCacheClusterCreateTime() != null; }
+                long get(ElasticacheCluster c) { return millis(c.getCacheClusterCreateTime()); }
+            })
+            .build();
+    }
+
+    private static ImmutableMap<String, Field<?>> elasticsearchCluster() {
+        return fields()
+            .put("domainname", new Text<ElasticsearchCluster>() {
+                String get(ElasticsearchCluster c) { return c.getDomainName(); }
+            })
+            .put("version", new Text<ElasticsearchCluster>() {
+                String get(ElasticsearchCluster c) { return c.getVersion(); }
+            })
+            .put("instancetype", new Text<ElasticsearchCluster>() {
+                String get(ElasticsearchCluster c) { return c.getInstanceType(); }
+            })
+            .put("dedicatedmastertype", new Text<ElasticsearchCluster>() {
+                String get(ElasticsearchCluster c) { return c.getDedicatedMasterType(); }
+            })
+            .put("instancecount", new Number<ElasticsearchCluster>() {
+                boolean isPresent(ElasticsearchCluster c) { return true; }
+                long get(ElasticsearchCluster c) { return c.getInstanceCount(); }
+            })
+            .put("dedicatedmastercount", new Number<ElasticsearchCluster>() {
+                boolean isPresent(ElasticsearchCluster c) { return true; }
+                long get(ElasticsearchCluster c) { return c.getDedicatedMasterCount(); }
+            })
+            .put("dedicatedmasterenabled", new Flag<ElasticsearchCluster>() {
+                Boolean get(ElasticsearchCluster c) { return c.isDedicatedMasterEnabled(); }
+            })
+            .put("zoneawarenessenabled", new Flag<ElasticsearchCluster>() {
+                Boolean get(ElasticsearchCluster c) { return c.isZoneAwarenessEnabled(); }
+            })
+            .build();
+    }
+
+    private static ImmutableMap.Builder<String, Field<?>> fields() {
+        return ImmutableMap.builder();
+    }
+}
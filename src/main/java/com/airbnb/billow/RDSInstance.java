@@ -3,6 +3,7 @@ package com.airbnb.billow;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 
+import java.io.Serializable;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
@@ -21,13 +22,12 @@ import com.amazonaws.services.rds.model.DBSubnetGroup;
 import com.amazonaws.services.rds.model.Endpoint;
 import com.amazonaws.services.rds.model.OptionGroupMembership;
 import com.amazonaws.services.rds.model.PendingModifiedValues;
-import com.amazonaws.services.rds.model.Tag;
 import com.amazonaws.services.rds.model.VpcSecurityGroupMembership;
 import com.fasterxml.jackson.annotation.JsonFilter;
 
 @Slf4j
 @JsonFilter(RDSInstance.INSTANCE_FILTER)
-public class RDSInstance {
+public class RDSInstance implements Serializable, Fingerprinted {
     public static final String INSTANCE_FILTER = "InstanceFilter";
 
     @Getter
@@ -110,8 +110,10 @@ public class RDSInstance {
 
     @Getter
     private final String caCertificateIdentifier;
+    private final long fingerprint;
 
-    public RDSInstance(DBInstance instance, DBCluster cluster, List<Tag> tagList, List<String> snapshots) {
+    public RDSInstance(DBInstance instance, DBCluster cluster, Map<String, String> tags, List<String> snapshots, long fingerprint) {
+        this.fingerprint = fingerprint;
         this.allocatedStorage = instance.getAllocatedStorage();
         this.autoMinorVersionUpgrade = instance.getAutoMinorVersionUpgrade();
         this.availabilityZone = instance.getAvailabilityZone();
@@ -153,15 +155,22 @@ public class RDSInstance {
         this.vpcSecurityGroups = instance.getVpcSecurityGroups();
         this.isMaster = checkIfMaster(instance, cluster);
 
-        this.tags = new HashMap<>(tagList.size());
-        for(Tag tag : tagList) {
-            this.tags.put(tag.getKey(), tag.getValue());
-        }
+        this.tags = new HashMap<>(tags);
 
         this.snapshots = new ArrayList<>(snapshots);
         this.caCertificateIdentifier = instance.getCACertificateIdentifier();
     }
 
+    @Override
+    public String resourceId() {
+        return dBInstanceIdentifier;
+    }
+
+    @Override
+    public long fingerprint() {
+        return fingerprint;
+    }
+
     public static boolean checkIfMaster(DBInstance instance, DBCluster cluster) {
         if (instance.getDBClusterIdentifier() == null || cluster == null) {
             // It's NOT a member of a DB cluster
@@ -0,0 +1,159 @@
+package com.airbnb.billow;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Runs refreshes one at a time per service, whoever asks for them.
+ * <p>
+ * A request for a refresh that is still queued joins it instead of queueing another one. A request made
+ * while the same refresh runs queues exactly one more, as the running one may have missed what prompted it.
+ * Rebuilds hold every service. Refreshes wait in the queue, not on a thread, until no refresh of their
+ * services runs, and in request order: one waiting for a service holds back later ones needing it too.
+ * Shutting down cancels whatever is queued or running.
+ */
+@Slf4j
+class RefreshCoordinator {
+    private final ExecutorService executor;
+    // Guarded by this
+    private final Map<String, Refresh> queued = new HashMap<>();
+    private final List<Refresh> waiting = new LinkedList<>();
+    private final Set<AWSService> busy = EnumSet.noneOf(AWSService.class);
+    private final Set<Refresh> outstanding = new HashSet<>();
+    private boolean shutdown;
+
+    RefreshCoordinator() {
+        // At most one refresh runs per service
+        this.executor = Executors.newFixedThreadPool(AWSService.values().length,
+            new ThreadFactoryBuilder().setNameFormat("refresh-%d").setDaemon(true).build());
+    }
+
+    /**
+     * @param key identifies the refresh, equal keys are coalesced
+     * @param services what the refresh updates, it waits until no other refresh of any of them runs
+     * @return completes once the refresh ran, or the one it was coalesced with
+     * @throws RejectedExecutionException after {@link #shutdown()}
+     */
+    synchronized Future<?> request(String key, Set<AWSService> services, Runnable refresh) {
+        if (shutdown)
+            throw new RejectedExecutionException("Shutting down, not refreshing " + key);
+
+        final Refresh existing = queued.get(key);
+        if (existing != null) {
+            log.debug("Coalescing refresh of {}", key);
+            return existing;
+        }
+        final Refresh created = new Refresh(key, services, refresh);
+        queued.put(key, created);
+        outstanding.add(created);
+        waiting.add(created);
+        dispatch();
+        return created;
+    }
+
+    void shutdown() {
+        synchronized (this) {
+            shutdown = true;
+            // Cancelling removes them from outstanding
+            for (Refresh refresh : new ArrayList<>(outstanding))
+                refresh.cancel(true);
+        }
+        executor.shutdownNow();
+    }
+
+    /**
+     * Starts every waiting refresh whose services are free, unless an earlier one waits for them.
+     */
+    private synchronized void dispatch() {
+        final Set<AWSService> claimed = EnumSet.copyOf(busy);
+        for (Iterator<Refresh> it = waiting.iterator(); it.hasNext(); ) {
+            final Refresh refresh = it.next();
+            final boolean free = disjoint(claimed, refresh.services);
+            claimed.addAll(refresh.services);
+            if (free) {
+                it.remove();
+                busy.addAll(refresh.services);
+                refresh.started = true;
+                executor.execute(refresh);
+            }
+        }
+    }
+
+    private static boolean disjoint(Set<AWSService> a, Set<AWSService> b) {
+        for (AWSService service : b) {
+            if (a.contains(service))
+                return false;
+        }
+        return true;
+    }
+
+    private final class Refresh extends FutureTask<Void> {
+        private final String key;
+        private final Set<AWSService> services;
+        // Guarded by the coordinator
+        private boolean started;
+
+        Refresh(String key, Set<AWSService> services, final Runnable refresh) {
+            super(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    refresh.run();
+                    return null;
+                }
+            });
+            this.key = key;
+            this.services = EnumSet.copyOf(services);
+        }
+
+        @Override
+        public void run() {
+            // From now on, requests queue the next refresh instead of joining this one
+            synchronized (RefreshCoordinator.this) {
+                if (queued.get(key) == this)
+                    queued.remove(key);
+            }
+            super.run();
+        }
+
+        @Override
+        protected void setException(Throwable t) {
+            // Nobody may be waiting for it, cancelled ones fail on purpose
+            if (!isCancelled())
+                log.warn("Failed to refresh {}", key, t);
+            super.setException(t);
+        }
+
+        @Override
+        protected void done() {
+            synchronized (RefreshCoordinator.this) {
+                if (queued.get(key) == this)
+                    queued.remove(key);
+                outstanding.remove(this);
+                if (started) {
+                    busy.removeAll(services);
+                } else {
+                    waiting.remove(this);
+                }
+                if (!shutdown)
+                    dispatch();
+            }
+        }
+    }
+}
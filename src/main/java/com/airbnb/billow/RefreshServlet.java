@@ -0,0 +1,53 @@
+package com.airbnb.billow;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.util.concurrent.RejectedExecutionException;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * {@code POST /refresh?service=ec2[&region=us-east-1]} crawls a service right away, in one region or all of them.
+ * Answers 202 without waiting, requests made while the same refresh is still queued are coalesced.
+ */
+@Slf4j
+public class RefreshServlet extends HttpServlet {
+    private final AWSDatabaseHolder dbHolder;
+
+    public RefreshServlet(AWSDatabaseHolder dbHolder) {
+        this.dbHolder = dbHolder;
+    }
+
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        final String serviceName = request.getParameter("service");
+        final String region = request.getParameter("region");
+
+        AWSService service = null;
+        for (AWSService candidate : AWSService.values()) {
+            if (candidate.getConfigName().equals(serviceName))
+                service = candidate;
+        }
+        if (service == null) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Unknown service " + serviceName);
+            return;
+        }
+
+        try {
+            dbHolder.requestRefresh(service, region);
+        } catch (IllegalArgumentException e) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+            return;
+        } catch (RejectedExecutionException e) {
+            response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, e.getMessage());
+            return;
+        }
+        log.info("Refresh of {} in {} requested", service, region == null ? "all regions" : region);
+        response.setStatus(HttpServletResponse.SC_ACCEPTED);
+        response.setContentType("text/plain");
+        response.getWriter().println("Refreshing " + serviceName + (region == null ? "" : " in " + region));
+    }
+}
@@ -0,0 +1,107 @@
+package com.airbnb.billow;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+import com.amazonaws.services.ec2.model.SecurityGroup;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableMultimap;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+/**
+ * Resources by id, built once per snapshot collection like {@link ResourceIndex}.
+ * <p>
+ * Ids are instance ids, DB instance identifiers, table names, queue URLs and ARNs, cache cluster ids,
+ * domain names and security group ids. Names are only unique within a region, so an id may match several.
+ */
+final class ResourceIds {
+    private static final Cache<ImmutableMultimap<String, ?>, ImmutableListMultimap<String, ?>> IDS =
+        CacheBuilder.newBuilder().weakKeys().build();
+
+    private ResourceIds() {
+    }
+
+    /**
+     * @return the resources of that collection by id, null if it is not made of identified resources
+     */
+    static ImmutableListMultimap<String, ?> of(AWSDatabase db, AWSService service) {
+        switch (service) {
+            case EC2_INSTANCES:
+                return of(db.getEc2Instances(), new Id<EC2Instance>() {
+                    void put(ImmutableListMultimap.Builder<String, EC2Instance> ids, EC2Instance i) {
+                        ids.put(i.getId(), i);
+                    }
+                });
+            case EC2_SECURITY_GROUPS:
+                return of(db.getEc2SGs(), new Id<SecurityGroup>() {
+                    void put(ImmutableListMultimap.Builder<String, SecurityGroup> ids, SecurityGroup g) {
+                        ids.put(g.getGroupId(), g);
+                    }
+                });
+            case RDS:
+                return of(db.getRdsInstances(), new Id<RDSInstance>() {
+                    void put(ImmutableListMultimap.Builder<String, RDSInstance> ids, RDSInstance i) {
+                        ids.put(i.getDBInstanceIdentifier(), i);
+                    }
+                });
+            case DYNAMODB:
+                return of(db.getDynamoTables(), new Id<DynamoTable>() {
+                    void put(ImmutableListMultimap.Builder<String, DynamoTable> ids, DynamoTable t) {
+                        ids.put(t.getTableName(), t);
+                    }
+                });
+            case SQS:
+                return of(db.getSqsQueues(), new Id<SQSQueue>() {
+                    void put(ImmutableListMultimap.Builder<String, SQSQueue> ids, SQSQueue q) {
+                        ids.put(q.getUrl(), q);
+                        if (q.getQueueArn() != null)
+                            ids.put(q.getQueueArn(), q);
+                    }
+                });
+            case ELASTICACHE:
+                return of(db.getElasticacheClusters(), new Id<ElasticacheCluster>() {
+                    void put(ImmutableListMultimap.Builder<String, ElasticacheCluster> ids, ElasticacheCluster c) {
+                        ids.put(c.getCacheClusterId(), c);
+                    }
+                });
+            case ELASTICSEARCH:
+                return of(db.getElasticsearchClusters(), new Id<ElasticsearchCluster>() {
+                    void put(ImmutableListMultimap.Builder<String, ElasticsearchCluster> ids, ElasticsearchCluster c) {
+                        ids.put(c.getDomainName(), c);
+                    }
+                });
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Builds the id maps of a snapshot ahead of the first lookup on it.
+     */
+    static void warm(AWSDatabase db) {
+        for (AWSService service : AWSService.values())
+            of(db, service);
+    }
+
+    private abstract static class Id<T> {
+        abstract void put(ImmutableListMultimap.Builder<String, T> ids, T resource);
+    }
+
+    private static <T> ImmutableListMultimap<String, ?> of(final ImmutableMultimap<String, T> collection, final Id<T> id) {
+        try {
+            return IDS.get(collection, new Callable<ImmutableListMultimap<String, ?>>() {
+                @Override
+                public ImmutableListMultimap<String, ?> call() {
+                    final ImmutableListMultimap.Builder<String, T> ids = ImmutableListMultimap.builder();
+                    for (T resource : collection.values())
+                        id.put(ids, resource);
+                    return ids.build();
+                }
+            });
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            throw new IllegalStateException("Failed to index ids", e.getCause());
+        }
+    }
+}
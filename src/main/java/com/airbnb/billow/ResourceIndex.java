@@ -0,0 +1,191 @@
+package com.airbnb.billow;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+import com.google.common.base.Predicate;
+import com.google.common.base.Predicates;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableCollection;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableMultimap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+/**
+ * Bitmaps of the resources of a snapshot collection holding each value of its {@link QueryFields#indexed} fields,
+ * each tag key and each tag key and value.
+ * <p>
+ * Built once per collection, which snapshots share until a crawl or an event replaces it, and dropped along with it.
+ * Equality and {@code in} conjuncts on indexed fields or tags, and tag {@code exists} conjuncts, are answered
+ * from the bitmaps, the other conjuncts are only evaluated on what those leave.
+ */
+final class ResourceIndex<T> {
+    // Weak keys compare by identity, as snapshot collections should
+    private static final Cache<ImmutableMultimap<String, ?>, ResourceIndex<?>> INDEXES =
+        CacheBuilder.newBuilder().weakKeys().build();
+
+    private final ImmutableList<T> resources;
+    private final ImmutableMap<String, Map<String, BitSet>> bitmaps;
+    private final Map<String, BitSet> tagged = new HashMap<>();
+    private final Map<String, Map<String, BitSet>> taggedWith = new HashMap<>();
+
+    @SuppressWarnings("unchecked")
+    private ResourceIndex(ImmutableCollection<T> all, Class<T> type) {
+        this.resources = all.asList();
+        final ImmutableMap.Builder<String, Map<String, BitSet>> builder = ImmutableMap.builder();
+        for (String name : QueryFields.indexed(type)) {
+            final QueryFields.Text<T> field = (QueryFields.Text<T>) QueryFields.field(type, name);
+            final Map<String, BitSet> byValue = new HashMap<>();
+            for (int i = 0; i < resources.size(); i++) {
+                final String value = field.get(resources.get(i));
+                if (value == null)
+                    continue;
+                bitmap(byValue, value).set(i);
+            }
+            builder.put(name, byValue);
+        }
+        this.bitmaps = builder.build();
+
+        final QueryFields.Tags<T> tags = QueryFields.tags(type);
+        for (int i = 0; i < resources.size(); i++) {
+            final Map<String, String> resourceTags = tags.get(resources.get(i));
+            if (resourceTags == null)
+                continue;
+            for (Map.Entry<String, String> tag : resourceTags.entrySet()) {
+                if (tag.getValue() == null)
+                    continue;
+                bitmap(tagged, tag.getKey()).set(i);
+                Map<String, BitSet> byValue = taggedWith.get(tag.getKey());
+                if (byValue == null) {
+                    byValue = new HashMap<>();
+                    taggedWith.put(tag.getKey(), byValue);
+                }
+                bitmap(byValue, tag.getValue()).set(i);
+            }
+        }
+    }
+
+    private BitSet bitmap(Map<String, BitSet> bitmaps, String key) {
+        BitSet bitmap = bitmaps.get(key);
+        if (bitmap == null) {
+            bitmap = new BitSet(resources.size());
+            bitmaps.put(key, bitmap);
+        }
+        return bitmap;
+    }
+
+    /**
+     * @param type one of the classes {@link QueryFields} knows
+     * @return the index of that collection, built on first use
+     */
+    @SuppressWarnings("unchecked")
+    static <T> ResourceIndex<T> of(final ImmutableMultimap<String, T> collection, final Class<T> type) {
+        try {
+            return (ResourceIndex<T>) INDEXES.get(collection, new Callable<ResourceIndex<?>>() {
+                @Override
+                public ResourceIndex<?> call() {
+                    return new ResourceIndex<>(collection.values(), type);
+                }
+            });
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            throw new IllegalStateException("Failed to index " + type.getSimpleName(), e.getCause());
+        }
+    }
+
+    /**
+     * Builds the indexes of a snapshot ahead of the first query on it.
+     */
+    static void warm(AWSDatabase db) {
+        of(db.getEc2Instances(), EC2Instance.class);
+        of(db.getRdsInstances(), RDSInstance.class);
+        of(db.getDynamoTables(), DynamoTable.class);
+        of(db.getSqsQueues(), SQSQueue.class);
+        of(db.getElasticacheClusters(), ElasticacheCluster.class);
+        of(db.getElasticsearchClusters(), ElasticsearchCluster.class);
+        AddressIndex.of(db.getEc2Instances());
+        ResourceIds.warm(db);
+    }
+
+    /**
+     * @param value null for any value
+     * @return the resources with that tag, in collection order
+     */
+    List<T> tagged(String key, String value) {
+        return select(tagBitmap(key, value == null ? null : ImmutableSet.of(value)), Predicates.<T>alwaysTrue());
+    }
+
+    private BitSet tagBitmap(String key, ImmutableSet<String> values) {
+        if (values == null) {
+            final BitSet withKey = tagged.get(key);
+            return withKey == null ? new BitSet() : (BitSet) withKey.clone();
+        }
+        final Map<String, BitSet> byValue = taggedWith.get(key);
+        return union(byValue == null ? ImmutableMap.<String, BitSet>of() : byValue, values);
+    }
+
+    private BitSet union(Map<String, BitSet> byValue, ImmutableSet<String> values) {
+        final BitSet matching = new BitSet(resources.size());
+        for (String value : values) {
+            final BitSet withValue = byValue.get(value);
+            if (withValue != null)
+                matching.or(withValue);
+        }
+        return matching;
+    }
+
+    /**
+     * @param conjuncts as planned by {@link PredicateQuery#plan}
+     * @return the matching resources, in collection order
+     */
+    Collection<T> filter(List<PredicateQuery.Conjunct<T>> conjuncts) {
+        BitSet selected = null;
+        final List<Predicate<T>> residual = new ArrayList<>();
+        for (PredicateQuery.Conjunct<T> conjunct : conjuncts) {
+            final BitSet matching;
+            if (conjunct.tag != null) {
+                matching = tagBitmap(conjunct.tag, conjunct.values);
+            } else {
+                final Map<String, BitSet> byValue = conjunct.field == null ? null : bitmaps.get(conjunct.field);
+                if (byValue == null) {
+                    residual.add(conjunct.predicate);
+                    continue;
+                }
+                matching = union(byValue, conjunct.values);
+            }
+            if (selected == null)
+                selected = matching;
+            else
+                selected.and(matching);
+        }
+
+        final Predicate<T> rest = residual.size() == 1 ? residual.get(0) : Predicates.and(residual);
+        if (selected == null) {
+            final List<T> result = new ArrayList<>();
+            for (T resource : resources) {
+                if (rest.apply(resource))
+                    result.add(resource);
+            }
+            return result;
+        }
+        return select(selected, rest);
+    }
+
+    private List<T> select(BitSet selected, Predicate<T> rest) {
+        final List<T> result = new ArrayList<>(selected.cardinality());
+        for (int i = selected.nextSetBit(0); i >= 0; i = selected.nextSetBit(i + 1)) {
+            final T resource = resources.get(i);
+            if (rest.apply(resource))
+                result.add(resource);
+        }
+        return result;
+    }
+}
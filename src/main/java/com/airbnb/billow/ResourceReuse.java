@@ -0,0 +1,76 @@
+package com.airbnb.billow;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.base.Function;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+/**
+ * What a region had in the previous snapshot, by id, so a crawl can carry over the resources
+ * that did not change instead of allocating them again. Snapshots then mostly share objects
+ * with their predecessor, and each crawl only allocates for what changed.
+ */
+final class ResourceReuse<T> {
+    private static final HashFunction HASH = Hashing.murmur3_128();
+
+    static final Function<Fingerprinted, String> RESOURCE_ID = new Function<Fingerprinted, String>() {
+        @Override
+        public String apply(Fingerprinted resource) {
+            return resource.resourceId();
+        }
+    };
+
+    private final Map<String, T> previous;
+    // Resources of a region may be described concurrently
+    private final AtomicInteger reused = new AtomicInteger();
+
+    ResourceReuse(Collection<T> previous, Function<? super T, String> idFunction) {
+        this.previous = new HashMap<>(previous.size());
+        for (T resource : previous)
+            this.previous.put(idFunction.apply(resource), resource);
+    }
+
+    /**
+     * Digests the records a resource is built from. Relies on the AWS model classes describing
+     * all their fields in toString(); a spurious mismatch only costs a fresh allocation.
+     */
+    static long fingerprint(Object... sources) {
+        final Hasher hasher = HASH.newHasher();
+        for (Object source : sources)
+            hasher.putUnencodedChars(String.valueOf(source)).putChar('\0');
+        return hasher.hash().asLong();
+    }
+
+    /**
+     * @return the previous resource with this id if it was built from records with the same fingerprint, or null
+     */
+    T unchanged(String id, long fingerprint) {
+        final T resource = previous.get(id);
+        if (resource instanceof Fingerprinted && ((Fingerprinted) resource).fingerprint() == fingerprint) {
+            reused.incrementAndGet();
+            return resource;
+        }
+        return null;
+    }
+
+    /**
+     * @return the previous resource with this id if it equals the fresh one, or the fresh one
+     */
+    T same(String id, T fresh) {
+        final T resource = previous.get(id);
+        if (fresh.equals(resource)) {
+            reused.incrementAndGet();
+            return resource;
+        }
+        return fresh;
+    }
+
+    int getReused() {
+        return reused.get();
+    }
+}
@@ -0,0 +1,313 @@
+package com.airbnb.billow;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.RatioGauge;
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+import com.google.common.io.ByteStreams;
+import com.google.common.net.HttpHeaders;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.typesafe.config.Config;
+
+/**
+ * Serialized GET responses for the current snapshot, keyed by target and parameters, bounded by their size in bytes.
+ * <p>
+ * Everything is dropped as soon as a request sees a new snapshot. Requests still holding an older one bypass the cache.
+ * Identical requests arriving while a response is computed wait for it instead of computing it again.
+ * Bodies may be kept gzipped, they are sent as such to clients accepting it and inflated for the others.
+ * Reported as {@code billow.query.responses.{hit,miss,hitRatio,bytes,count}}.
+ */
+class ResponseCache {
+    private final AWSDatabaseHolder dbHolder;
+    private final Cache<Key, Body> cache;
+    private final boolean compress;
+    private final Meter hits;
+    private final Meter misses;
+    // Guarded by this
+    private AWSDatabase generation;
+
+    ResponseCache(Config config, MetricRegistry registry, AWSDatabaseHolder dbHolder) {
+        this.dbHolder = dbHolder;
+        this.cache = CacheBuilder.newBuilder()
+            .maximumWeight(config.getBytes("maxSize"))
+            .weigher(new Weigher<Key, Body>() {
+                @Override
+                public int weigh(Key key, Body body) {
+                    return body.bytes.length;
+                }
+            })
+            .build();
+        this.compress = config.getBoolean("compress");
+        this.hits = registry.meter(MetricRegistry.name("billow", "query", "responses", "hit"));
+        this.misses = registry.meter(MetricRegistry.name("billow", "query", "responses", "miss"));
+        registry.register(MetricRegistry.name("billow", "query", "responses", "hitRatio"), new RatioGauge() {
+            @Override
+            protected Ratio getRatio() {
+                return Ratio.of(hits.getFiveMinuteRate(), hits.getFiveMinuteRate() + misses.getFiveMinuteRate());
+            }
+        });
+        registry.register(MetricRegistry.name("billow", "query", "responses", "bytes"), new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                long bytes = 0;
+                for (Body body : cache.asMap().values())
+                    bytes += body.bytes.length;
+                return bytes;
+            }
+        });
+        registry.register(MetricRegistry.name("billow", "query", "responses", "count"), new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return cache.size();
+            }
+        });
+    }
+
+    interface Computation {
+        void run(HttpServletResponse response) throws IOException;
+    }
+
+    /**
+     * Serves the response of {@code computation} for that request and snapshot, from the cache if possible.
+     * Server errors are not kept.
+     */
+    void serve(String target,
+               HttpServletRequest request,
+               final HttpServletResponse response,
+               AWSDatabase db,
+               final Computation computation) throws IOException {
+        if (!"GET".equals(request.getMethod()) || !isCurrent(db)) {
+            computation.run(response);
+            return;
+        }
+
+        final Key key = new Key(db, target, normalize(request.getParameterMap()));
+        final boolean[] computed = new boolean[1];
+        final Body body;
+        try {
+            body = cache.get(key, new Callable<Body>() {
+                @Override
+                public Body call() throws IOException {
+                    computed[0] = true;
+                    final Capture capture = new Capture(response);
+                    computation.run(capture);
+                    return capture.toBody();
+                }
+            });
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            Throwables.propagateIfInstanceOf(e.getCause(), IOException.class);
+            throw Throwables.propagate(e.getCause());
+        }
+        if (computed[0]) {
+            misses.mark();
+        } else {
+            hits.mark();
+        }
+        if (body.status >= HttpServletResponse.SC_INTERNAL_SERVER_ERROR)
+            cache.invalidate(key);
+        dropIfStale(key);
+
+        response.setStatus(body.status);
+        if (compress)
+            response.setHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        if (body.contentType != null)
+            response.setHeader(HttpHeaders.CONTENT_TYPE, body.contentType);
+        if (body.bytes.length == 0)
+            return;
+        final String acceptEncoding = request.getHeader(HttpHeaders.ACCEPT_ENCODING);
+        if (!body.gzipped) {
+            response.getOutputStream().write(body.bytes);
+        } else if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+            response.setHeader(HttpHeaders.CONTENT_ENCODING, "gzip");
+            response.getOutputStream().write(body.bytes);
+        } else {
+            ByteStreams.copy(new GZIPInputStream(new ByteArrayInputStream(body.bytes)), response.getOutputStream());
+        }
+    }
+
+    private synchronized boolean isCurrent(AWSDatabase db) {
+        if (db == generation)
+            return true;
+        if (db != dbHolder.getCurrent())
+            return false;
+        cache.invalidateAll();
+        generation = db;
+        return true;
+    }
+
+    /**
+     * A response computed while the snapshot was swapped lands after the cache was cleared, and would keep
+     * the previous snapshot alive until evicted.
+     */
+    private synchronized void dropIfStale(Key key) {
+        if (key.generation != generation)
+            cache.invalidate(key);
+    }
+
+    private static String normalize(Map<String, String[]> params) {
+        final StringBuilder normalized = new StringBuilder();
+        for (Map.Entry<String, String[]> param : new TreeMap<>(params).entrySet())
+            normalized.append(param.getKey()).append('=').append(Arrays.toString(param.getValue())).append('&');
+        return normalized.toString();
+    }
+
+    private static final class Key {
+        // Compared by identity, requests racing with a snapshot swap must not mix them up
+        private final AWSDatabase generation;
+        private final String target;
+        private final String params;
+
+        Key(AWSDatabase generation, String target, String params) {
+            this.generation = generation;
+            this.target = target;
+            this.params = params;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key))
+                return false;
+            final Key other = (Key) o;
+            return generation == other.generation && target.equals(other.target) && params.equals(other.params);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * System.identityHashCode(generation) + target.hashCode()) + params.hashCode();
+        }
+    }
+
+    private static final class Body {
+        private final int status;
+        private final String contentType;
+        private final boolean gzipped;
+        private final byte[] bytes;
+
+        Body(int status, String contentType, boolean gzipped, byte[] bytes) {
+            this.status = status;
+            this.contentType = contentType;
+            this.gzipped = gzipped;
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * Keeps the status, content type and body of a response, passing every other header through.
+     */
+    private final class Capture extends HttpServletResponseWrapper {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private int status = HttpServletResponse.SC_OK;
+        private String contentType;
+        private PrintWriter writer;
+        private final ServletOutputStream outputStream = new ServletOutputStream() {
+            @Override
+            public void write(int b) {
+                bytes.write(b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                bytes.write(b, off, len);
+            }
+
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public void setWriteListener(WriteListener listener) {
+                try {
+                    listener.onWritePossible();
+                } catch (IOException e) {
+                    listener.onError(e);
+                }
+            }
+        };
+
+        Capture(HttpServletResponse response) {
+            super(response);
+        }
+
+        @Override
+        public void setStatus(int status) {
+            this.status = status;
+        }
+
+        @Override
+        public void sendError(int status) {
+            this.status = status;
+        }
+
+        @Override
+        public void sendError(int status, String message) {
+            this.status = status;
+        }
+
+        @Override
+        public int getStatus() {
+            return status;
+        }
+
+        @Override
+        public void setHeader(String name, String value) {
+            if (HttpHeaders.CONTENT_TYPE.equalsIgnoreCase(name))
+                contentType = value;
+            else
+                super.setHeader(name, value);
+        }
+
+        @Override
+        public void setContentType(String type) {
+            contentType = type;
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() {
+            return outputStream;
+        }
+
+        @Override
+        public PrintWriter getWriter() {
+            if (writer == null)
+                writer = new PrintWriter(new OutputStreamWriter(bytes, StandardCharsets.UTF_8));
+            return writer;
+        }
+
+        Body toBody() throws IOException {
+            if (writer != null)
+                writer.flush();
+            if (!compress || bytes.size() == 0)
+                return new Body(status, contentType, false, bytes.toByteArray());
+            final ByteArrayOutputStream gzipped = new ByteArrayOutputStream(bytes.size() / 4);
+            try (GZIPOutputStream gzip = new GZIPOutputStream(gzipped)) {
+                bytes.writeTo(gzip);
+            }
+            return new Body(status, contentType, true, gzipped.toByteArray());
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.airbnb.billow;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.amazonaws.services.sqs.AmazonSQS;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequest;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequestEntry;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchResult;
+import com.amazonaws.services.sqs.model.Message;
+import com.amazonaws.services.sqs.model.ReceiveMessageRequest;
+import com.typesafe.config.Config;
+
+/**
+ * Long-polls an SQS queue, typically subscribed to EventBridge rules or a CloudTrail SNS topic.
+ */
+@Slf4j
+public class SQSChangeEventSource implements ChangeEventSource {
+    // ReceiveMessage and DeleteMessageBatch cap
+    private static final int MAX_MESSAGES = 10;
+
+    private final AmazonSQS client;
+    private final String queueUrl;
+    private final int waitTimeSeconds;
+    private final List<Message> received = new ArrayList<>();
+
+    public SQSChangeEventSource(AmazonSQS client, Config config) {
+        this.client = client;
+        this.queueUrl = config.getString("queueUrl");
+        this.waitTimeSeconds = (int) config.getDuration("waitTime", TimeUnit.SECONDS);
+    }
+
+    @Override
+    public List<String> poll() {
+        received.clear();
+        received.addAll(client.receiveMessage(new ReceiveMessageRequest(queueUrl)
+            .withMaxNumberOfMessages(MAX_MESSAGES)
+            .withWaitTimeSeconds(waitTimeSeconds)).getMessages());
+
+        final List<String> bodies = new ArrayList<>(received.size());
+        for (Message message : received)
+            bodies.add(message.getBody());
+        return bodies;
+    }
+
+    @Override
+    public void commit() {
+        if (received.isEmpty())
+            return;
+
+        final List<DeleteMessageBatchRequestEntry> entries = new ArrayList<>(received.size());
+        for (Message message : received)
+            entries.add(new DeleteMessageBatchRequestEntry(message.getMessageId(), message.getReceiptHandle()));
+        final DeleteMessageBatchResult result = client.deleteMessageBatch(new DeleteMessageBatchRequest(queueUrl, entries));
+        if (!result.getFailed().isEmpty())
+            log.warn("Could not delete {} messages from {}, they will be applied again", result.getFailed().size(), queueUrl);
+        received.clear();
+    }
+
+    @Override
+    public void close() {
+        client.shutdown();
+    }
+}
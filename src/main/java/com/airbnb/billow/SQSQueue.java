@@ -3,11 +3,14 @@ package com.airbnb.billow;
 import lombok.Getter;
 
 import com.fasterxml.jackson.annotation.JsonFilter;
+import com.google.common.collect.ImmutableList;
 
+import java.io.Serializable;
+import java.util.List;
 import java.util.Map;
 
 @JsonFilter(SQSQueue.QUEUE_FILTER)
-public class SQSQueue {
+public class SQSQueue implements Serializable, Fingerprinted {
     public static final String QUEUE_FILTER = "QueueFilter";
 
     public static final String ATTR_APPROXIMATE_NUMBER_OF_MESSAGES_DELAYED = "ApproximateNumberOfMessagesDelayed";
@@ -21,6 +24,21 @@ public class SQSQueue {
     public static final String ATTR_LAST_MODIFIED_TIMESTAMP = "LastModifiedTimestamp";
     public static final String ATTR_QUEUE_ARN = "QueueArn";
 
+    /**
+     * The attributes to request, nothing else is kept.
+     */
+    public static final List<String> ATTRIBUTES = ImmutableList.of(
+        ATTR_APPROXIMATE_NUMBER_OF_MESSAGES_DELAYED,
+        ATTR_RECEIVE_MESSAGE_WAIT_TIME_SECONDS,
+        ATTR_CREATED_TIMESTAMP,
+        ATTR_DELAY_SECONDS,
+        ATTR_MESSAGE_RETENTION_PERIOD,
+        ATTR_MAXIMUM_MESSAGE_SIZE,
+        ATTR_VISIBILITY_TIMEOUT,
+        ATTR_APPROXIMATE_NUMBER_OF_MESSAGES,
+        ATTR_LAST_MODIFIED_TIMESTAMP,
+        ATTR_QUEUE_ARN);
+
     @Getter
     private final String url;
     @Getter
@@ -45,8 +63,7 @@ public class SQSQueue {
     private final String queueArn;
     @Getter
     private final Map<String, String> tags;
-
-
+    private final long fingerprint;
 
     public SQSQueue(String url,
                     Long approximateNumberOfMessagesDelayed,
@@ -59,7 +76,8 @@ public class SQSQueue {
                     Long approximateNumberOfMessages,
                     Long lastModifiedTimestamp,
                     String queueArn,
-                    Map<String, String> tags) {
+                    Map<String, String> tags,
+                    long fingerprint) {
         this.url = url;
         this.approximateNumberOfMessagesDelayed = approximateNumberOfMessagesDelayed;
         this.receiveMessageWaitTimeSeconds = receiveMessageWaitTimeSeconds;
@@ -72,5 +90,25 @@ public class SQSQueue {
         this.lastModifiedTimestamp = lastModifiedTimestamp;
         this.queueArn = queueArn;
         this.tags = tags;
+        this.fingerprint = fingerprint;
+    }
+
+    /**
+     * @return a copy with fresher message counts
+     */
+    SQSQueue withDepth(Long approximateNumberOfMessages, Long approximateNumberOfMessagesDelayed) {
+        return new SQSQueue(url, approximateNumberOfMessagesDelayed, receiveMessageWaitTimeSeconds, createdTimestamp,
+            delaySeconds, messageRetentionPeriod, maximumMessageSize, visibilityTimeout, approximateNumberOfMessages,
+            lastModifiedTimestamp, queueArn, tags, NO_FINGERPRINT);
+    }
+
+    @Override
+    public String resourceId() {
+        return url;
+    }
+
+    @Override
+    public long fingerprint() {
+        return fingerprint;
     }
 }
@@ -0,0 +1,59 @@
+package com.airbnb.billow;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.amazonaws.services.resourcegroupstaggingapi.AWSResourceGroupsTaggingAPI;
+import com.amazonaws.services.resourcegroupstaggingapi.model.GetResourcesRequest;
+import com.amazonaws.services.resourcegroupstaggingapi.model.GetResourcesResult;
+import com.amazonaws.services.resourcegroupstaggingapi.model.ResourceTagMapping;
+import com.amazonaws.services.resourcegroupstaggingapi.model.Tag;
+
+/**
+ * The tags of every resource of one type in one region, keyed by ARN, fetched in bulk through the
+ * Resource Groups Tagging API instead of one call per resource.
+ * Resources that were never tagged are not listed, so they get no tags.
+ */
+@Slf4j
+class TagIndex {
+    // GetResources cap
+    private static final int PAGE_SIZE = 100;
+
+    private final Map<String, Map<String, String>> tagsByArn;
+
+    private TagIndex(Map<String, Map<String, String>> tagsByArn) {
+        this.tagsByArn = tagsByArn;
+    }
+
+    /**
+     * @param resourceType a resource type filter, e.g. {@code rds:db} or {@code sqs}
+     */
+    static TagIndex build(AWSResourceGroupsTaggingAPI client, String resourceType) {
+        final Map<String, Map<String, String>> tagsByArn = new HashMap<>();
+        final GetResourcesRequest request = new GetResourcesRequest()
+            .withResourceTypeFilters(resourceType)
+            .withResourcesPerPage(PAGE_SIZE);
+        GetResourcesResult result;
+        do {
+            result = client.getResources(request);
+            for (ResourceTagMapping mapping : result.getResourceTagMappingList()) {
+                final Map<String, String> tags = new HashMap<>(mapping.getTags().size());
+                for (Tag tag : mapping.getTags())
+                    tags.put(tag.getKey(), tag.getValue());
+                tagsByArn.put(mapping.getResourceARN(), tags);
+            }
+            request.setPaginationToken(result.getPaginationToken());
+        } while (result.getPaginationToken() != null && !result.getPaginationToken().isEmpty());
+
+        log.debug("Found tags for {} {} resources", tagsByArn.size(), resourceType);
+        return new TagIndex(tagsByArn);
+    }
+
+    Map<String, String> get(String arn) {
+        final Map<String, String> tags = tagsByArn.get(arn);
+        return tags == null ? Collections.<String, String>emptyMap() : tags;
+    }
+}
@@ -0,0 +1,36 @@
+package com.airbnb.billow;
+
+import com.codahale.metrics.Counter;
+import org.quartz.DisallowConcurrentExecution;
+import org.quartz.Job;
+import org.quartz.JobExecutionContext;
+import org.quartz.JobExecutionException;
+
+/**
+ * Keeps EC2 instance states and SQS queue depths fresh between crawls, see {@link AWSDatabaseHolder#refreshVolatile()}.
+ */
+@DisallowConcurrentExecution
+public class VolatileRefreshJob implements Job {
+    public static final String FAILURE_COUNTER_KEY = "volatile_failure_counter";
+    public static final String NAME                = "volatileRefresh";
+
+    @Override
+    public void execute(JobExecutionContext context) throws JobExecutionException {
+        try {
+            final AWSDatabaseHolder dbHolder =
+                (AWSDatabaseHolder) context.getScheduler().getContext().get(AWSDatabaseHolderRefreshJob.DB_KEY);
+            dbHolder.refreshVolatile();
+        } catch (Exception e) {
+            increment(context);
+            throw new JobExecutionException(e);
+        }
+    }
+
+    private void increment(JobExecutionContext context) {
+        try {
+            ((Counter) context.getScheduler().getContext().get(FAILURE_COUNTER_KEY)).inc();
+        } catch (Exception e) {
+            // do nothing, don't throw an error for metrics
+        }
+    }
+}